@@ -0,0 +1,370 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ *   Measures the speed of tokenizing, indexing and searching on a
+ *   synthetic corpus from ZipfianCorpus, so that the effect of a change
+ *   can be measured and regressions caught. The corpus is the same for
+ *   the same options.
+ *
+ *   Each benchmark is run a number of times to warm up the JIT compiler
+ *   and then measured a number of times; the median is reported. The
+ *   searches also report the 50th and 99th percentile of single
+ *   queries. Results can be saved to a file with -save, and compared
+ *   with a saved file with -compare: a benchmark that got slower by more
+ *   than the threshold is reported as a regression, and the program then
+ *   exits with status 1.
+ *
+ *   Usage: java ir.Benchmark [-docs n] [-length n] [-vocab n] [-seed n]
+ *          [-warmup n] [-iterations n] [-only name] [-save file]
+ *          [-compare file] [-threshold fraction]
+ */
+public class Benchmark {
+
+    /** Number of queries of each type. */
+    private static final int QUERIES = 1000;
+
+    int docs = 2000;
+    int length = 300;
+    int vocabulary = 50000;
+    long seed = 42;
+    int warmup = 3;
+    int iterations = 5;
+    String only = null;
+    double threshold = 0.1;
+
+    /** The documents of the corpus. */
+    private ArrayList<String> texts = new ArrayList<String>();
+
+    /** The corpus as files, for the indexer. */
+    private File dir;
+
+    /** Results, in nanoseconds per operation, by benchmark name. */
+    private HashMap<String,Double> results = new HashMap<String,Double>();
+    private ArrayList<String> names = new ArrayList<String>();
+
+    /** Written by the benchmarks, so that their work cannot be optimized away. */
+    static volatile long sink;
+
+
+    /**
+     *  A piece of work to measure.
+     */
+    interface Task {
+	/**  Does the work once. @return the number of operations done */
+	long run() throws Exception;
+    }
+
+
+    /**
+     *  Generates the corpus and writes it to a temporary directory.
+     */
+    void setUp() throws IOException {
+	dir = File.createTempFile( "corpus", "" );
+	dir.delete();
+	new ZipfianCorpus( vocabulary, ZipfianCorpus.DEFAULT_EXPONENT, seed ).writeDocuments( dir, docs, length );
+	// The same documents again, from a corpus with the same seed
+	ZipfianCorpus corpus = new ZipfianCorpus( vocabulary, ZipfianCorpus.DEFAULT_EXPONENT, seed );
+	for ( int d=0; d<docs; d++ ) {
+	    texts.add( corpus.document( length ));
+	}
+    }
+
+
+    void tearDown() {
+	delete( dir );
+    }
+
+
+    /**  Deletes a directory of documents */
+    static void delete( File dir ) {
+	for ( File f : dir.listFiles() ) {
+	    f.delete();
+	}
+	dir.delete();
+    }
+
+
+    void runAll() throws Exception {
+	System.out.println( String.format( "Corpus: %d documents of %d words, vocabulary %d, seed %d", docs, length, vocabulary, seed ));
+	System.out.println();
+
+	final StringBuilder all = new StringBuilder();
+	for ( String text : texts ) {
+	    all.append( text ).append( '\n' );
+	}
+	measure( "tokenizer", "tokens", new Task() {
+	    public long run() throws IOException {
+		SimpleTokenizer tok = new SimpleTokenizer( new StringReader( all.toString() ));
+		long n = 0, chars = 0;
+		while ( tok.advance() ) {
+		    chars += tok.termLength();
+		    n++;
+		}
+		sink += chars;
+		return n;
+	    }
+	});
+
+	measure( "postings.add", "postings", new Task() {
+	    public long run() {
+		PostingsList list = new PostingsList();
+		int n = 1000000;
+		for ( int i=0; i<n; i++ ) {
+		    list.add( i/8, i );
+		}
+		sink += list.size();
+		return n;
+	    }
+	});
+
+	measure( "index.files", "documents", new Task() {
+	    public long run() {
+		sink += buildIndex( dir ).getLexicon().size();
+		return docs;
+	    }
+	});
+
+	// The index searched by the query benchmarks
+	final Index index = buildIndex( dir );
+	ZipfianCorpus corpus = new ZipfianCorpus( vocabulary, ZipfianCorpus.DEFAULT_EXPONENT, seed+1 );
+	Random random = new Random( seed+1 );
+	String[] pairs = new String[QUERIES];
+	String[] phrases = new String[QUERIES];
+	String[] triples = new String[QUERIES];
+	for ( int q=0; q<QUERIES; q++ ) {
+	    pairs[q] = corpus.nextWord() + " " + corpus.nextWord();
+	    triples[q] = corpus.nextWord() + " " + corpus.nextWord() + " " + corpus.nextWord();
+	    // Phrases are taken from the documents, so that they match
+	    String[] words = texts.get( random.nextInt( docs )).split( "\\s+" );
+	    int i = random.nextInt( words.length-1 );
+	    phrases[q] = words[i] + " " + words[i+1];
+	}
+	measureQueries( "search.intersection", index, pairs, Index.INTERSECTION_QUERY );
+	measureQueries( "search.phrase", index, phrases, Index.PHRASE_QUERY );
+	measureQueries( "search.ranked", index, triples, Index.RANKED_QUERY );
+    }
+
+
+    /**
+     *  Indexes the documents in @code{dir} into a new HashedIndex.
+     */
+    static Index buildIndex( File dir ) {
+	Index.docTable.clear();
+	Indexer indexer = new Indexer( new HashedIndex() );
+	// The indexer reports every file
+	PrintStream err = System.err;
+	System.setErr( new PrintStream( new OutputStream() {
+	    public void write( int b ) {
+	    }
+	}));
+	try {
+	    indexer.processFiles( dir );
+	}
+	finally {
+	    System.setErr( err );
+	}
+	return indexer.index;
+    }
+
+
+    /**
+     *  Runs a task @code{warmup} times, then measures it @code{iterations}
+     *  times and prints the median time per operation.
+     */
+    void measure( String name, String unit, Task task ) throws Exception {
+	if ( only != null && !name.contains( only )) {
+	    return;
+	}
+	for ( int i=0; i<warmup; i++ ) {
+	    task.run();
+	}
+	double[] nsPerOp = new double[iterations];
+	for ( int i=0; i<iterations; i++ ) {
+	    long start = System.nanoTime();
+	    long ops = task.run();
+	    nsPerOp[i] = (double)( System.nanoTime() - start ) / ops;
+	}
+	Arrays.sort( nsPerOp );
+	double median = nsPerOp[iterations/2];
+	record( name, median );
+	System.out.println( String.format( "%-22s %12.1f ns/op %14.0f %s/s", name, median, 1e9 / median, unit ));
+    }
+
+
+    /**
+     *  Measures a set of queries, one at a time, and prints the median
+     *  time per query over the iterations and the percentiles of single
+     *  queries over all iterations.
+     */
+    void measureQueries( String name, final Index index, final String[] queries, final int queryType ) throws Exception {
+	if ( only != null && !name.contains( only )) {
+	    return;
+	}
+	final long[] times = new long[queries.length * iterations];
+	final int[] count = { -warmup * queries.length };
+	measure( name, "queries", new Task() {
+	    public long run() {
+		for ( String q : queries ) {
+		    long start = System.nanoTime();
+		    PostingsList result = index.search( new Query( q ), queryType, Index.TF_IDF );
+		    long t = System.nanoTime() - start;
+		    if ( count[0] >= 0 ) {
+			times[count[0]] = t;
+		    }
+		    count[0]++;
+		    sink += result == null ? 0 : result.size();
+		}
+		return queries.length;
+	    }
+	});
+	Arrays.sort( times );
+	System.out.println( String.format( "%-22s %12s p50 %.1f us, p99 %.1f us", "", "",
+					   times[times.length/2] / 1e3, times[(int)( times.length * 0.99 )] / 1e3 ));
+    }
+
+
+    private void record( String name, double nsPerOp ) {
+	names.add( name );
+	results.put( name, nsPerOp );
+    }
+
+
+    /**
+     *  Writes the results as lines of name and nanoseconds per operation.
+     */
+    void save( File file ) throws IOException {
+	Writer out = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+	try {
+	    for ( String name : names ) {
+		out.write( name + "\t" + results.get( name ) + "\n" );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+
+    /**
+     *  Compares the results with those saved in a file.
+     *  @return the number of regressions.
+     */
+    int compare( File file ) throws IOException {
+	HashMap<String,Double> baseline = new HashMap<String,Double>();
+	BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ));
+	try {
+	    String line;
+	    while (( line = in.readLine() ) != null ) {
+		String[] f = line.split( "\t" );
+		if ( f.length == 2 ) {
+		    baseline.put( f[0], Double.parseDouble( f[1] ));
+		}
+	    }
+	}
+	finally {
+	    in.close();
+	}
+	System.out.println();
+	System.out.println( "Compared with " + file + ":" );
+	int regressions = 0;
+	for ( String name : names ) {
+	    Double before = baseline.get( name );
+	    if ( before == null ) {
+		continue;
+	    }
+	    double change = results.get( name ) / before - 1;
+	    String verdict = "";
+	    if ( change > threshold ) {
+		verdict = "  REGRESSION";
+		regressions++;
+	    }
+	    System.out.println( String.format( "%-22s %+7.1f%%%s", name, 100*change, verdict ));
+	}
+	return regressions;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    public static void main( String[] args ) throws Exception {
+	Benchmark b = new Benchmark();
+	File saveFile = null, compareFile = null;
+	for ( int i=0; i<args.length; i++ ) {
+	    String option = args[i];
+	    if ( i+1 >= args.length ) {
+		System.err.println( "Missing value for " + option );
+		return;
+	    }
+	    String value = args[++i];
+	    if ( "-docs".equals( option )) {
+		b.docs = Integer.parseInt( value );
+	    }
+	    else if ( "-length".equals( option )) {
+		b.length = Integer.parseInt( value );
+	    }
+	    else if ( "-vocab".equals( option )) {
+		b.vocabulary = Integer.parseInt( value );
+	    }
+	    else if ( "-seed".equals( option )) {
+		b.seed = Long.parseLong( value );
+	    }
+	    else if ( "-warmup".equals( option )) {
+		b.warmup = Integer.parseInt( value );
+	    }
+	    else if ( "-iterations".equals( option )) {
+		b.iterations = Math.max( 1, Integer.parseInt( value ));
+	    }
+	    else if ( "-only".equals( option )) {
+		b.only = value;
+	    }
+	    else if ( "-save".equals( option )) {
+		saveFile = new File( value );
+	    }
+	    else if ( "-compare".equals( option )) {
+		compareFile = new File( value );
+	    }
+	    else if ( "-threshold".equals( option )) {
+		b.threshold = Double.parseDouble( value );
+	    }
+	    else {
+		System.err.println( "Unknown option: " + option );
+		return;
+	    }
+	}
+	b.setUp();
+	try {
+	    b.runAll();
+	}
+	finally {
+	    b.tearDown();
+	}
+	if ( saveFile != null ) {
+	    b.save( saveFile );
+	}
+	if ( compareFile != null && b.compare( compareFile ) > 0 ) {
+	    System.exit( 1 );
+	}
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *   Ranks documents for the COMBINATION ranking type by a linear blend
+ *   of their tf-idf score, their PageRank and a prior on their length,
+ *
+ *      a * tfidf(d) / tfidf(best)  +  b * pagerank(d) / pagerank(max)  +  c * log(1+length(d)) / log(1+length(max))
+ *
+ *   so that each part lies between 0 and 1 and the weights a, b and c
+ *   say how much each part counts.
+ *
+ *   Ranking is done in two stages. First the top candidates by tf-idf
+ *   are found with QueryEngine.ranked(), which skips most documents.
+ *   Then only the candidates are scored by the blend. The last two
+ *   parts do not depend on the query, and are precomputed into one
+ *   static score per document, so the second stage costs one array
+ *   lookup per candidate. The static scores are recomputed when the
+ *   weights, the PageRank or the document table change.
+ */
+public class CombinedRanking {
+
+    /**
+     *  Candidates taken from the tf-idf ranking per result asked for.
+     *  More candidates let the static scores lift documents from
+     *  further down, but lower the threshold of the first stage, which
+     *  then skips fewer documents.
+     */
+    public static final int CANDIDATES_PER_RESULT = 3;
+
+    /** Fewest candidates taken from the tf-idf ranking. */
+    public static final int MIN_CANDIDATES = 30;
+
+    private static volatile double tfidfWeight = 1.0;
+    private static volatile double pagerankWeight = 0.5;
+    private static volatile double lengthWeight = 0.1;
+
+    /** The static scores, or null if they must be recomputed. */
+    private static volatile Scores scores = null;
+
+    /** Incremented by invalidate(). */
+    private static volatile int generation = 0;
+
+
+    private CombinedRanking() {
+    }
+
+
+    /**
+     *  Sets the weights of the tf-idf score, the PageRank and the
+     *  length prior.
+     */
+    public static synchronized void setWeights( double tfidf, double pagerank, double length ) {
+	tfidfWeight = tfidf;
+	pagerankWeight = pagerank;
+	lengthWeight = length;
+	invalidate();
+    }
+
+
+    /**
+     *  Makes the static scores be recomputed before the next search.
+     *  Called when the PageRank or the document lengths change.
+     */
+    public static synchronized void invalidate() {
+	scores = null;
+	generation++;
+    }
+
+
+    /**
+     *  A number that changes whenever the weights, the PageRank or the
+     *  document lengths change, so that results ranked by PageRank or
+     *  by the blend can be cached.
+     */
+    public static int generation() {
+	return generation;
+    }
+
+
+    /**  Number of tf-idf candidates to rerank for @code{k} results */
+    public static int candidates( int k ) {
+	return Math.max( MIN_CANDIDATES, CANDIDATES_PER_RESULT * k );
+    }
+
+
+    /**
+     *  Returns the @code{k} best of the candidates, which are ranked by
+     *  tf-idf, best first, by the blended score.
+     */
+    public static PostingsList rerank( PostingsList candidates, int k ) {
+	PostingsList result = new PostingsList();
+	if ( candidates == null || candidates.size() == 0 ) {
+	    return result;
+	}
+	Scores s = getScores();
+	double best = candidates.getScore( 0 );
+	double a = best > 0 ? tfidfWeight / best : 0;
+	PostingsEntry[] blended = new PostingsEntry[candidates.size()];
+	for ( int i=0; i<blended.length; i++ ) {
+	    int docID = candidates.getDocID( i );
+	    blended[i] = new PostingsEntry( docID, a * candidates.getScore( i ) + s.get( docID ), null );
+	}
+	Arrays.sort( blended );
+	for ( int i=0; i<Math.min( k, blended.length ); i++ ) {
+	    result.add( blended[i] );
+	}
+	return result;
+    }
+
+
+    /**
+     *  Returns the query-independent part of the blended score of a
+     *  document.
+     */
+    public static double staticScore( int docID ) {
+	return getScores().get( docID );
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    private static Scores getScores() {
+	Scores s = scores;
+	if ( s == null ) {
+	    s = compute();
+	}
+	return s;
+    }
+
+
+    private static synchronized Scores compute() {
+	if ( scores != null ) {
+	    return scores;
+	}
+	DocumentTable table = Index.docTable;
+	int n = table.size();
+	double maxPagerank = 0;
+	int maxLength = 0;
+	for ( int d=0; d<n; d++ ) {
+	    maxPagerank = Math.max( maxPagerank, PageRank.getScore( d ));
+	    maxLength = Math.max( maxLength, table.getLength( d ));
+	}
+	Scores s = new Scores();
+	s.pagerankScale = maxPagerank > 0 ? pagerankWeight / maxPagerank : 0;
+	s.lengthScale = maxLength > 0 ? lengthWeight / Math.log( 1 + maxLength ) : 0;
+	s.values = new double[n];
+	for ( int d=0; d<n; d++ ) {
+	    s.values[d] = s.pagerankScale * PageRank.getScore( d ) + s.lengthScale * Math.log( 1 + table.getLength( d ));
+	}
+	scores = s;
+	return s;
+    }
+
+
+    /**  Precomputed static scores, by docID */
+    private static class Scores {
+	double[] values;
+	double pagerankScale;
+	double lengthScale;
+
+	double get( int docID ) {
+	    if ( docID >= 0 && docID < values.length ) {
+		return values[docID];
+	    }
+	    // Added to the table after the scores were computed
+	    return pagerankScale * PageRank.getScore( docID ) + lengthScale * Math.log( 1 + Index.docTable.getLength( docID ));
+	}
+    }
+}
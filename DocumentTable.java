@@ -0,0 +1,906 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *   The documents of the index, in columns indexed by docID: the name
+ *   (path) of each document, its number of tokens, and the Euclidean
+ *   length (norm) of its tf-idf vector. Looking up a document is an
+ *   array read, with no boxing or string keys.
+ *
+ *   Names are stored UTF-8 encoded, one after the other in a byte array,
+ *   each preceded by its length as a variable-byte number, and a column
+ *   of ints refers to the name of each document. A document costs its
+ *   name plus twelve bytes, rather than two hash map entries with their
+ *   keys and values. Index.docIDs and Index.docLengths are views of the
+ *   table, for code that wants maps keyed by docID.
+ *
+ *   The table can be saved to a file and opened again by mapping the
+ *   file into memory, so opening an index reads nothing but the header.
+ *   After the header come the columns of the n documents, each with
+ *   room for c >= n documents:
+ *
+ *      lengths     c ints
+ *      norms       c floats
+ *      names       c ints, the position + 1 of the name, 0 if none
+ *      name bytes
+ *
+ *   Saving the table to the file it was opened from writes only what
+ *   has changed: the changed documents, the new documents in the room
+ *   left for them, and the new names after the others. The whole file
+ *   is written again, with room for half as many documents more, only
+ *   when the columns are full.
+ *
+ *   The file is mapped read-only, so an index in a read-only directory
+ *   can be opened. The documents in the file can still be changed, in
+ *   memory only: their new values are kept on the side, in a map. The
+ *   documents added after the file was opened are kept in arrays on the
+ *   heap. A name given to a document in the file is stored on the heap
+ *   as well, and referred to by a negative number.
+ *
+ *   Only docIDs from 0 to 2^28-1 can be stored. The columns are as
+ *   long as the largest docID, so docIDs must be dense: a docID more
+ *   than MAX_GAP past both the documents and the docIDs reserved with
+ *   reserve() is ignored.
+ */
+public class DocumentTable implements Serializable {
+
+    private static final long serialVersionUID = 701407903198940296L;
+
+    /** Largest number of documents the table grows to. */
+    private static final int MAX_DOCUMENTS = 1 << 28;
+
+    /** Largest number of unused docIDs left before a new document. */
+    private static final int MAX_GAP = 1 << 16;
+
+    private static final int MAGIC = 0x49524454;
+    private static final int VERSION = 2;
+
+    /**
+     *  Magic number, version, number of documents, number of documents
+     *  with a name, the stamp given to save(), the room in the columns
+     *  and the number of name bytes. Version 1 had no room in the
+     *  columns, and zeros in place of the last two.
+     */
+    private static final int HEADER = 32;
+
+    /** The documents in the file, from docID 0 to mapped.size-1. */
+    private transient volatile Mapped mapped;
+
+    /** The documents from docID mapped.size on. */
+    private transient volatile Heap heap;
+
+    /** One more than the largest docID stored. */
+    private transient volatile int size;
+
+    /** Number of documents with a name. */
+    private transient int count;
+
+    /** One more than the largest docID handed out to new documents. */
+    private transient volatile int reserved;
+
+    /** Changed by every change of a length or norm, see version(). */
+    private transient volatile int version;
+
+    private transient Map<String,String> nameView;
+    private transient Map<String,Integer> lengthView;
+
+
+    public DocumentTable() {
+	clear();
+    }
+
+
+    /**  One more than the largest docID in the table */
+    public int size() {
+	return size;
+    }
+
+    /**  Number of documents with a name */
+    public synchronized int count() {
+	return count;
+    }
+
+    /**
+     *  A number that changes whenever a length or norm changes, so that
+     *  values computed from them can be cached.
+     */
+    public int version() {
+	return version;
+    }
+
+    /**  @code{true} if the docID is in the range the table can store */
+    public static boolean fits( int docID ) {
+	return docID >= 0 && docID < MAX_DOCUMENTS;
+    }
+
+    /**
+     *  @code{true} if the docID can be stored without leaving a gap of
+     *  more than MAX_GAP unused docIDs.
+     */
+    public boolean accepts( int docID ) {
+	return fits( docID ) && docID < Math.max( size, reserved ) + MAX_GAP;
+    }
+
+    /**
+     *  Records that the docIDs below @code{end} have been handed out,
+     *  so documents may come with any of them, in any order.
+     */
+    public synchronized void reserve( int end ) {
+	reserved = Math.max( reserved, end );
+    }
+
+
+    /**  Returns the number of tokens in a document, or 0 if unknown */
+    public int getLength( int docID ) {
+	// Read in the opposite order of open(), which sets mapped first
+	Heap h = heap;
+	Mapped m = mapped;
+	if ( docID < m.size ) {
+	    return docID >= 0 ? m.length( docID ) : 0;
+	}
+	int[] a = h.lengths;
+	int i = docID - h.base;
+	return i >= 0 && i < a.length ? a[i] : 0;
+    }
+
+    /**  Returns the norm of a document's tf-idf vector, or 0 if unknown */
+    public float getNorm( int docID ) {
+	Heap h = heap;
+	Mapped m = mapped;
+	if ( docID < m.size ) {
+	    return docID >= 0 ? m.norm( docID ) : 0;
+	}
+	float[] a = h.norms;
+	int i = docID - h.base;
+	return i >= 0 && i < a.length ? a[i] : 0;
+    }
+
+    /**  Returns the name of a document, or null if unknown */
+    public synchronized String getName( int docID ) {
+	int ref = nameRef( docID );
+	if ( ref == 0 ) {
+	    return null;
+	}
+	ByteBuffer b = nameBytes( ref );
+	byte[] bytes = new byte[PostingsCodec.readVByte( b )];
+	b.get( bytes );
+	return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**  @code{true} if the document has a name */
+    public synchronized boolean contains( int docID ) {
+	return nameRef( docID ) != 0;
+    }
+
+
+    /**
+     *  Returns the first document from @code{docID} on that has a name,
+     *  or -1 if there is none.
+     */
+    public synchronized int nextDocument( int docID ) {
+	for ( int d=Math.max( docID, 0 ); d<size; d++ ) {
+	    if ( nameRef( d ) != 0 ) {
+		return d;
+	    }
+	}
+	return -1;
+    }
+
+
+    public synchronized void setLength( int docID, int length ) {
+	if ( !accepts( docID )) {
+	    return;
+	}
+	if ( getLength( docID ) != length ) {
+	    version++;
+	}
+	if ( docID < mapped.size ) {
+	    mapped.change( docID )[0] = length;
+	}
+	else {
+	    ensureCapacity( docID );
+	    heap.lengths[docID-heap.base] = length;
+	}
+	size = Math.max( size, docID+1 );
+    }
+
+    public synchronized void setNorm( int docID, float norm ) {
+	if ( !accepts( docID )) {
+	    return;
+	}
+	if ( getNorm( docID ) != norm ) {
+	    version++;
+	}
+	if ( docID < mapped.size ) {
+	    mapped.setNorm( docID, norm );
+	}
+	else {
+	    ensureCapacity( docID );
+	    heap.norms[docID-heap.base] = norm;
+	}
+	size = Math.max( size, docID+1 );
+    }
+
+    /**
+     *  Sets the name of a document, or removes it if @code{name} is null.
+     */
+    public synchronized void setName( int docID, String name ) {
+	if ( !accepts( docID )) {
+	    return;
+	}
+	int ref = nameRef( docID );
+	if ( name == null ? ref == 0 : name.equals( getName( docID ))) {
+	    return;
+	}
+	if ( ref != 0 ) {
+	    count--;
+	}
+	if ( name != null ) {
+	    ref = store( name );
+	    count++;
+	}
+	else {
+	    ref = 0;
+	}
+	if ( docID < mapped.size ) {
+	    mapped.change( docID )[2] = ref;
+	}
+	else {
+	    ensureCapacity( docID );
+	    heap.names[docID-heap.base] = ref;
+	}
+	size = Math.max( size, docID+1 );
+    }
+
+    /**
+     *  Adds a document, or replaces it.
+     */
+    public synchronized void put( int docID, String name, int length, float norm ) {
+	setName( docID, name );
+	setLength( docID, length );
+	setNorm( docID, norm );
+    }
+
+    /**
+     *  Removes the name, length and norm of a document.
+     */
+    public synchronized void remove( int docID ) {
+	if ( docID >= 0 && docID < size ) {
+	    put( docID, null, 0, 0 );
+	}
+    }
+
+    /**
+     *  Replaces all norms. @code{norms[d]} is the norm of document d.
+     */
+    public synchronized void setNorms( float[] newNorms ) {
+	Mapped m = mapped;
+	if ( m.size > 0 && newNorms.length >= m.size && m.allNorms == null ) {
+	    // One column, rather than a changed row for every document
+	    float[] a = new float[m.size];
+	    for ( int d=0; d<m.size; d++ ) {
+		a[d] = m.norm( d );
+	    }
+	    m.allNorms = a;
+	}
+	for ( int d=0; d<newNorms.length; d++ ) {
+	    setNorm( d, newNorms[d] );
+	}
+    }
+
+    /**
+     *  Copies all documents of another table into this one.
+     */
+    public synchronized void putAll( DocumentTable other ) {
+	int n = other.size();
+	reserve( n );
+	for ( int d=0; d<n; d++ ) {
+	    String name = other.getName( d );
+	    int length = other.getLength( d );
+	    float norm = other.getNorm( d );
+	    if ( name != null || length != 0 || norm != 0 ) {
+		put( d, name, length, norm );
+	    }
+	}
+    }
+
+    /**
+     *  Adds the documents recorded in a partial index.
+     */
+    public synchronized void addAll( HashedIndex partial ) {
+	Map<String,Integer> lengths = partial.getDocumentLengths();
+	for ( Map.Entry<String,String> e : partial.getDocumentNames().entrySet() ) {
+	    int docID = Integer.parseInt( e.getKey() );
+	    Integer length = lengths.get( e.getKey() );
+	    setName( docID, e.getValue() );
+	    setLength( docID, length == null ? 0 : length );
+	}
+    }
+
+    /**
+     *  Removes all documents, and unmaps the file if one was opened.
+     */
+    public synchronized void clear() {
+	mapped = new Mapped( null, null, 0, 0 );
+	heap = new Heap( 0 );
+	size = 0;
+	count = 0;
+	reserved = 0;
+	version++;
+    }
+
+
+    /**
+     *  The names of the documents, keyed by docID as a string. Changes
+     *  to the map change the table.
+     */
+    public synchronized Map<String,String> names() {
+	if ( nameView == null ) {
+	    nameView = new Column<String>() {
+		String value( int docID ) {
+		    return getName( docID );
+		}
+		void setValue( int docID, String name ) {
+		    setName( docID, name );
+		}
+	    };
+	}
+	return nameView;
+    }
+
+    /**
+     *  The lengths of the documents that have a name, keyed by docID as
+     *  a string. Changes to the map change the table.
+     */
+    public synchronized Map<String,Integer> lengths() {
+	if ( lengthView == null ) {
+	    lengthView = new Column<Integer>() {
+		Integer value( int docID ) {
+		    return contains( docID ) ? getLength( docID ) : null;
+		}
+		void setValue( int docID, Integer length ) {
+		    setLength( docID, length == null ? 0 : length );
+		}
+	    };
+	}
+	return lengthView;
+    }
+
+
+    /**
+     *  Saves the table to @code{file}, and maps it, so that the
+     *  documents no longer take space on the heap. @code{stamp} is kept
+     *  in the file, for open() to check.
+     */
+    public synchronized void save( File file, long stamp ) throws IOException {
+	Mapped m = mapped;
+	if ( file.equals( m.file ) && size <= m.capacity && file.length() == m.end() ) {
+	    update( file, stamp );
+	}
+	else {
+	    write( file, stamp, Math.max( size + size/2, 1024 ));
+	}
+	open( file, stamp );
+    }
+
+
+    /**
+     *  Writes the whole table, with room for @code{capacity} documents,
+     *  to @code{file}, replacing it in one step.
+     */
+    private void write( File file, long stamp, int capacity ) throws IOException {
+	int n = size;
+	long nameBytes = 0;
+	for ( int d=0; d<n; d++ ) {
+	    int ref = nameRef( d );
+	    if ( ref != 0 ) {
+		int length = PostingsCodec.readVByte( nameBytes( ref ));
+		nameBytes += vbyteLength( length ) + length;
+	    }
+	}
+	if ( HEADER + 12L*capacity + nameBytes > Integer.MAX_VALUE ) {
+	    throw new IOException( "The document table is too large to be mapped" );
+	}
+	File tmp = new File( file.getPath() + ".tmp" );
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ));
+	try {
+	    out.writeInt( MAGIC );
+	    out.writeInt( VERSION );
+	    out.writeInt( n );
+	    out.writeInt( count );
+	    out.writeLong( stamp );
+	    out.writeInt( capacity );
+	    out.writeInt( (int)nameBytes );
+	    for ( int d=0; d<capacity; d++ ) {
+		out.writeInt( getLength( d ));
+	    }
+	    for ( int d=0; d<capacity; d++ ) {
+		out.writeFloat( getNorm( d ));
+	    }
+	    int pos = 0;
+	    for ( int d=0; d<capacity; d++ ) {
+		int ref = nameRef( d );
+		if ( ref == 0 ) {
+		    out.writeInt( 0 );
+		}
+		else {
+		    out.writeInt( pos+1 );
+		    int length = PostingsCodec.readVByte( nameBytes( ref ));
+		    pos += vbyteLength( length ) + length;
+		}
+	    }
+	    for ( int d=0; d<n; d++ ) {
+		int ref = nameRef( d );
+		if ( ref != 0 ) {
+		    writeName( out, ref );
+		}
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	file.delete();
+	if ( !tmp.renameTo( file )) {
+	    throw new IOException( "Couldn't rename " + tmp + " to " + file );
+	}
+    }
+
+
+    /**
+     *  Writes the changes since the table was mapped into the mapped
+     *  file itself: the changed documents, the new documents and the
+     *  names stored on the heap. The stamp in the file is cleared
+     *  first, so that a table left half written is not opened.
+     */
+    private void update( File file, long stamp ) throws IOException {
+	Mapped m = mapped;
+	int n = size;
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream names = new DataOutputStream( bytes );
+	int[] refs = new int[n - m.size];
+	for ( int d=m.size; d<n; d++ ) {
+	    refs[d-m.size] = fileRef( d, m, names );
+	}
+	RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+	try {
+	    FileChannel channel = raf.getChannel();
+	    ByteBuffer b = ByteBuffer.allocate( 8 );
+	    b.putLong( 0 ).flip();
+	    channel.write( b, 16 );
+	    channel.force( false );
+	    b = ByteBuffer.allocate( 4 );
+	    for ( int d=m.changed.nextSetBit( 0 ); d>=0; d=m.changed.nextSetBit( d+1 )) {
+		write( channel, b, m.lengths + 4*d, getLength( d ));
+		write( channel, b, m.norms + 4*d, Float.floatToIntBits( getNorm( d )));
+		write( channel, b, m.names + 4*d, fileRef( d, m, names ));
+	    }
+	    if ( m.allNorms != null ) {
+		b = ByteBuffer.allocate( 4*m.size );
+		b.asFloatBuffer().put( m.allNorms );
+		channel.write( b, m.norms );
+	    }
+	    if ( n > m.size ) {
+		b = ByteBuffer.allocate( 4*( n-m.size ));
+		for ( int d=m.size; d<n; d++ ) {
+		    b.putInt( getLength( d ));
+		}
+		b.flip();
+		channel.write( b, m.lengths + 4*m.size );
+		b.clear();
+		for ( int d=m.size; d<n; d++ ) {
+		    b.putFloat( getNorm( d ));
+		}
+		b.flip();
+		channel.write( b, m.norms + 4*m.size );
+		b.clear();
+		b.asIntBuffer().put( refs );
+		channel.write( b, m.names + 4*m.size );
+	    }
+	    names.flush();
+	    if ( (long)m.end() + bytes.size() > Integer.MAX_VALUE ) {
+		throw new IOException( "The document table is too large to be mapped" );
+	    }
+	    channel.write( ByteBuffer.wrap( bytes.toByteArray() ), m.end() );
+	    channel.force( false );
+	    b = ByteBuffer.allocate( HEADER );
+	    b.putInt( MAGIC ).putInt( VERSION ).putInt( n ).putInt( count ).putLong( stamp );
+	    b.putInt( m.capacity ).putInt( m.nameBytes + bytes.size() ).flip();
+	    channel.write( b, 0 );
+	}
+	finally {
+	    raf.close();
+	}
+    }
+
+    private static void write( FileChannel channel, ByteBuffer b, long position, int v ) throws IOException {
+	b.clear();
+	b.putInt( v ).flip();
+	channel.write( b, position );
+    }
+
+
+    /**
+     *  Returns the reference to the name of a document in the mapped
+     *  file, after adding the name to @code{names} if it is on the heap.
+     *  @code{names} follows the name bytes of the file.
+     */
+    private int fileRef( int docID, Mapped m, DataOutputStream names ) throws IOException {
+	int ref = nameRef( docID );
+	if ( ref >= 0 ) {
+	    return ref;
+	}
+	int pos = m.nameBytes + names.size();
+	writeName( names, ref );
+	return pos+1;
+    }
+
+
+    /**  Writes the stored name @code{ref}, with its length */
+    private void writeName( DataOutputStream out, int ref ) throws IOException {
+	ByteBuffer b = nameBytes( ref );
+	int length = PostingsCodec.readVByte( b );
+	byte[] bytes = new byte[length];
+	b.get( bytes );
+	PostingsCodec.writeVByte( out, length );
+	out.write( bytes );
+    }
+
+
+    /**
+     *  Replaces the contents of the table with a table saved in
+     *  @code{file}, mapped into memory.
+     *
+     *  @return false, leaving the table as it is, if the file does not
+     *  exist or was saved with another stamp.
+     */
+    public synchronized boolean open( File file, long stamp ) throws IOException {
+	if ( !file.exists() ) {
+	    return false;
+	}
+	ByteBuffer buf;
+	RandomAccessFile raf = new RandomAccessFile( file, "r" );
+	try {
+	    // The mapping stays valid after the channel is closed
+	    FileChannel channel = raf.getChannel();
+	    if ( channel.size() < HEADER || channel.size() > Integer.MAX_VALUE ) {
+		throw new IOException( "Not a document table: " + file );
+	    }
+	    buf = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+	}
+	finally {
+	    raf.close();
+	}
+	int n = buf.getInt( 8 );
+	int capacity = buf.getInt( 4 ) == 1 ? n : buf.getInt( 24 );
+	long nameBytes = buf.getInt( 4 ) == 1 ? buf.capacity() - HEADER - 12L*n : buf.getInt( 28 );
+	if ( buf.getInt( 0 ) != MAGIC || buf.getInt( 4 ) < 1 || buf.getInt( 4 ) > VERSION ||
+	     n < 0 || capacity < n || nameBytes < 0 || HEADER + 12L*capacity + nameBytes > buf.capacity() ) {
+	    throw new IOException( "Not a document table: " + file );
+	}
+	if ( buf.getLong( 16 ) != stamp ) {
+	    return false;
+	}
+	Mapped m = new Mapped( buf, file, capacity, (int)nameBytes );
+	mapped = m;
+	heap = new Heap( m.size );
+	size = m.size;
+	version++;
+	count = buf.getInt( 12 );
+	return true;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  The documents in a mapped file, or none, with the changes made to
+     *  them since. Changes are made with the table locked, and can be
+     *  read without the lock.
+     */
+    private static class Mapped {
+	final ByteBuffer buf;
+	final File file;
+	final int size;
+
+	/** Room in the columns, and the number of name bytes. */
+	final int capacity, nameBytes;
+
+	/** Positions of the columns in the file. */
+	final int lengths, norms, names, bytes;
+
+	/**
+	 *  The changed documents, and their length, norm (as int bits) and
+	 *  name reference. A row is in @code{changes} before its bit is set.
+	 */
+	final BitSet changed;
+	final ConcurrentHashMap<Integer,int[]> changes = new ConcurrentHashMap<Integer,int[]>();
+
+	/** The norms of all documents, once they have all been set. */
+	volatile float[] allNorms;
+
+	Mapped( ByteBuffer buf, File file, int capacity, int nameBytes ) {
+	    this.buf = buf;
+	    this.file = file;
+	    size = buf == null ? 0 : buf.getInt( 8 );
+	    this.capacity = capacity;
+	    this.nameBytes = nameBytes;
+	    lengths = HEADER;
+	    norms = lengths + 4*capacity;
+	    names = norms + 4*capacity;
+	    bytes = names + 4*capacity;
+	    changed = new BitSet( size );
+	}
+
+	/**  The end of the name bytes, and of the file as mapped */
+	int end() {
+	    return bytes + nameBytes;
+	}
+
+	int length( int docID ) {
+	    return changed.get( docID ) ? changes.get( docID )[0] : buf.getInt( lengths + 4*docID );
+	}
+
+	float norm( int docID ) {
+	    float[] a = allNorms;
+	    if ( a != null ) {
+		return a[docID];
+	    }
+	    return changed.get( docID ) ? Float.intBitsToFloat( changes.get( docID )[1] ) : buf.getFloat( norms + 4*docID );
+	}
+
+	int name( int docID ) {
+	    return changed.get( docID ) ? changes.get( docID )[2] : buf.getInt( names + 4*docID );
+	}
+
+	void setNorm( int docID, float norm ) {
+	    float[] a = allNorms;
+	    if ( a != null ) {
+		a[docID] = norm;
+	    }
+	    else {
+		change( docID )[1] = Float.floatToIntBits( norm );
+	    }
+	}
+
+	/**  Returns the row of a document's values, to be changed */
+	int[] change( int docID ) {
+	    int[] row = changes.get( docID );
+	    if ( row == null ) {
+		row = new int[] { length( docID ), Float.floatToIntBits( norm( docID )), name( docID ) };
+		changes.put( docID, row );
+		changed.set( docID );
+	    }
+	    return row;
+	}
+    }
+
+
+    /**  The documents on the heap, from docID base on */
+    private static class Heap {
+	final int base;
+	int[] lengths = new int[1024];
+	float[] norms = new float[1024];
+	int[] names = new int[1024];
+	byte[] bytes = new byte[16384];
+	int byteCount = 0;
+
+	Heap( int base ) {
+	    this.base = base;
+	}
+    }
+
+
+    /**
+     *  Returns how the name of a document is stored: 0 if there is no
+     *  name, the position + 1 in the file if positive, and minus the
+     *  position + 1 in the heap bytes if negative.
+     */
+    private int nameRef( int docID ) {
+	if ( docID < 0 || docID >= size ) {
+	    return 0;
+	}
+	if ( docID < mapped.size ) {
+	    return mapped.name( docID );
+	}
+	int i = docID - heap.base;
+	return i >= 0 && i < heap.names.length ? heap.names[i] : 0;
+    }
+
+    /**  Returns a buffer positioned at the stored name @code{ref} */
+    private ByteBuffer nameBytes( int ref ) {
+	ByteBuffer b;
+	if ( ref > 0 ) {
+	    b = mapped.buf.duplicate();
+	    b.position( mapped.bytes + ref-1 );
+	}
+	else {
+	    b = ByteBuffer.wrap( heap.bytes );
+	    b.position( -ref-1 );
+	}
+	return b;
+    }
+
+    /**  Appends a name to the heap bytes, and returns its reference */
+    private int store( String name ) {
+	byte[] b = name.getBytes( StandardCharsets.UTF_8 );
+	Heap h = heap;
+	if ( h.byteCount + 5 + b.length > h.bytes.length ) {
+	    h.bytes = Arrays.copyOf( h.bytes, Math.max( h.byteCount + 5 + b.length, 2*h.bytes.length ));
+	}
+	int pos = h.byteCount;
+	// As PostingsCodec.writeVByte
+	int v = b.length;
+	while (( v & ~0x7F ) != 0 ) {
+	    h.bytes[h.byteCount++] = (byte)( v & 0x7F );
+	    v >>>= 7;
+	}
+	h.bytes[h.byteCount++] = (byte)( v | 0x80 );
+	System.arraycopy( b, 0, h.bytes, h.byteCount, b.length );
+	h.byteCount += b.length;
+	return -( pos+1 );
+    }
+
+    private static int vbyteLength( int v ) {
+	int n = 1;
+	while (( v & ~0x7F ) != 0 ) {
+	    v >>>= 7;
+	    n++;
+	}
+	return n;
+    }
+
+    /**  Makes room for @code{docID}, which is not in the file */
+    private void ensureCapacity( int docID ) {
+	Heap h = heap;
+	int i = docID - h.base;
+	if ( i >= h.lengths.length ) {
+	    int newCapacity = Math.max( i+1, 2*h.lengths.length );
+	    h.lengths = Arrays.copyOf( h.lengths, newCapacity );
+	    h.norms = Arrays.copyOf( h.norms, newCapacity );
+	    h.names = Arrays.copyOf( h.names, newCapacity );
+	}
+    }
+
+
+    /**
+     *  Only the documents are written, as for a table on the heap.
+     */
+    private synchronized void writeObject( ObjectOutputStream out ) throws IOException {
+	out.writeInt( size );
+	for ( int d=0; d<size; d++ ) {
+	    String name = getName( d );
+	    out.writeInt( getLength( d ));
+	    out.writeFloat( getNorm( d ));
+	    out.writeBoolean( name != null );
+	    if ( name != null ) {
+		out.writeUTF( name );
+	    }
+	}
+    }
+
+    private void readObject( ObjectInputStream in ) throws IOException {
+	clear();
+	int n = in.readInt();
+	for ( int d=0; d<n; d++ ) {
+	    int length = in.readInt();
+	    float norm = in.readFloat();
+	    String name = in.readBoolean() ? in.readUTF() : null;
+	    put( d, name, length, norm );
+	}
+    }
+
+
+    /**
+     *  A column of the table as a map, keyed by docID as a string. Only
+     *  documents with a name are in the map.
+     */
+    private abstract class Column<V> extends AbstractMap<String,V> {
+
+	abstract V value( int docID );
+	abstract void setValue( int docID, V value );
+
+	public V get( Object key ) {
+	    int docID = docID( key );
+	    return docID < 0 ? null : value( docID );
+	}
+
+	public boolean containsKey( Object key ) {
+	    return get( key ) != null;
+	}
+
+	public V put( String key, V value ) {
+	    int docID = Integer.parseInt( key );
+	    V old = value( docID );
+	    setValue( docID, value );
+	    return old;
+	}
+
+	public V remove( Object key ) {
+	    V old = get( key );
+	    if ( old != null ) {
+		setValue( docID( key ), null );
+	    }
+	    return old;
+	}
+
+	public int size() {
+	    return count();
+	}
+
+	public void clear() {
+	    DocumentTable.this.clear();
+	}
+
+	public Set<Map.Entry<String,V>> entrySet() {
+	    return new AbstractSet<Map.Entry<String,V>>() {
+		public int size() {
+		    return count();
+		}
+		public Iterator<Map.Entry<String,V>> iterator() {
+		    return new Iterator<Map.Entry<String,V>>() {
+			int next = nextDocument( 0 );
+			int last = -1;
+			public boolean hasNext() {
+			    return next >= 0;
+			}
+			public Map.Entry<String,V> next() {
+			    if ( next < 0 ) {
+				throw new NoSuchElementException();
+			    }
+			    last = next;
+			    next = nextDocument( next+1 );
+			    return new AbstractMap.SimpleImmutableEntry<String,V>( "" + last, value( last ));
+			}
+			public void remove() {
+			    if ( last < 0 ) {
+				throw new IllegalStateException();
+			    }
+			    setValue( last, null );
+			    last = -1;
+			}
+		    };
+		}
+	    };
+	}
+
+	private int docID( Object key ) {
+	    if ( !( key instanceof String )) {
+		return -1;
+	    }
+	    try {
+		return Integer.parseInt( (String)key );
+	    }
+	    catch ( NumberFormatException e ) {
+		return -1;
+	    }
+	}
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *   The terms of each document with their frequencies (its term vector),
+ *   for relevance feedback, which needs all terms of a few documents.
+ *   The inverted index can only answer that by looking at every term.
+ *
+ *   Terms are numbered by a TermDictionary of their own. A vector is
+ *   stored as the number of terms, followed by pairs of term identifier
+ *   and frequency, sorted by identifier, with the identifiers as gaps.
+ *   All numbers are variable-byte coded (see PostingsCodec), so most
+ *   terms of a document take two or three bytes.
+ *
+ *   Vectors are built by transposing the partial indexes of the indexer
+ *   (addAll), which hold the postings of their documents only. Like the
+ *   DocumentTable, the vectors are kept in an array indexed by docID, so
+ *   only the docIDs the DocumentTable accepts are stored.
+ *
+ *   The vectors can be stored in files (open), as for a
+ *   MappedSegmentIndex. New vectors are then kept in memory until
+ *   commit() appends them to a data file, which is mapped into memory
+ *   in windows of 2^WINDOW_BITS bytes, so that it can grow past 2GB,
+ *   and read in place. Three files are used:
+ *
+ *      name        the vectors, one after the other
+ *      name.terms  the terms, one per line, in order of identifier
+ *      name.docs   the offset and length of each document's vector
+ *
+ *   The data and terms files are only appended to, and the docs file is
+ *   replaced in one step, so it only refers to vectors that are in the
+ *   data file. The space of removed vectors is reclaimed by rewriting
+ *   the data file when more than half of it is unused.
+ */
+public class ForwardIndex {
+
+    /** The terms of all vectors. */
+    private TermDictionary dictionary = new TermDictionary();
+
+    /** The encoded vector of each document not yet stored, or null. */
+    private volatile byte[][] vectors = new byte[1024][];
+
+    /** Bytes of all vectors. */
+    private long bytes = 0;
+
+    /** The data file, or null if the vectors are only kept in memory. */
+    private File file;
+
+    /** The stored vectors. */
+    private volatile Store store = new Store( null, new long[0], new int[0] );
+
+    /** Number of terms in the terms file. */
+    private int storedTerms = 0;
+
+    /** Bytes of the data file, and bytes of it in use. */
+    private long fileBytes = 0;
+    private long liveBytes = 0;
+
+    /** Smallest data file that is compacted. */
+    private static final long MIN_COMPACTION = 1 << 20;
+
+    /** The data file is mapped in windows of 2^WINDOW_BITS bytes. */
+    private static final int WINDOW_BITS = 30;
+
+
+    /**
+     *  The stored vectors: the windows of the mapped data file, and the
+     *  offset (-1 if none) and length of each document's vector in it.
+     */
+    private static class Store {
+	final ByteBuffer[] data;
+	final long[] offsets;
+	final int[] lengths;
+
+	Store( ByteBuffer[] data, long[] offsets, int[] lengths ) {
+	    this.data = data;
+	    this.offsets = offsets;
+	    this.lengths = lengths;
+	}
+    }
+
+
+    /**
+     *  The terms and frequencies of a document, sorted by term identifier.
+     */
+    public static class Vector {
+	public int[] termIDs;
+	public int[] frequencies;
+	public int size;
+
+	Vector( int size ) {
+	    termIDs = new int[size];
+	    frequencies = new int[size];
+	}
+    }
+
+
+    /**
+     *  Adds the vectors of all documents of a partial index.
+     */
+    public void addAll( HashedIndex partial ) {
+	TermDictionary terms = partial.getDictionary();
+	int n = terms.size();
+	// The identifiers of the partial index's terms in this index
+	int[] ids = new int[n];
+	synchronized ( dictionary ) {
+	    for ( int i=0; i<n; i++ ) {
+		ids[i] = dictionary.add( terms, i );
+	    }
+	}
+	// Count the terms of each document, and give the documents numbers
+	HashMap<Integer,Integer> documents = new HashMap<Integer,Integer>();
+	int[] counts = new int[16];
+	for ( int i=0; i<n; i++ ) {
+	    PostingsList list = partial.getPostings( i );
+	    for ( int j=0; list != null && j<list.size(); j++ ) {
+		int docID = list.getDocID( j );
+		if ( !Index.docTable.accepts( docID )) {
+		    continue;
+		}
+		Integer d = documents.get( docID );
+		if ( d == null ) {
+		    d = documents.size();
+		    documents.put( docID, d );
+		    if ( d == counts.length ) {
+			counts = Arrays.copyOf( counts, 2*d );
+		    }
+		}
+		counts[d]++;
+	    }
+	}
+	// Transpose
+	Vector[] vectors = new Vector[documents.size()];
+	for ( int d=0; d<vectors.length; d++ ) {
+	    vectors[d] = new Vector( counts[d] );
+	}
+	for ( int i=0; i<n; i++ ) {
+	    PostingsList list = partial.getPostings( i );
+	    for ( int j=0; list != null && j<list.size(); j++ ) {
+		Integer d = documents.get( list.getDocID( j ));
+		if ( d != null ) {
+		    Vector v = vectors[d];
+		    v.termIDs[v.size] = ids[i];
+		    v.frequencies[v.size] = list.getFrequency( j );
+		    v.size++;
+		}
+	    }
+	}
+	for ( Map.Entry<Integer,Integer> e : documents.entrySet() ) {
+	    put( e.getKey(), vectors[e.getValue()] );
+	}
+    }
+
+
+    /**
+     *  Stores the vector of a document, given the terms (as strings of
+     *  the document) and their frequencies.
+     */
+    public void put( int docID, String[] terms, int[] frequencies, int n ) {
+	Vector v = new Vector( n );
+	synchronized ( dictionary ) {
+	    for ( int i=0; i<n; i++ ) {
+		v.termIDs[i] = dictionary.add( terms[i] );
+	    }
+	}
+	System.arraycopy( frequencies, 0, v.frequencies, 0, n );
+	v.size = n;
+	put( docID, v );
+    }
+
+
+    /**
+     *  Returns the vector of a document, or null if it is not known.
+     */
+    public Vector get( int docID ) {
+	if ( docID < 0 ) {
+	    return null;
+	}
+	byte[][] vs = vectors;
+	if ( docID < vs.length && vs[docID] != null ) {
+	    return decode( ByteBuffer.wrap( vs[docID] ));
+	}
+	Store s = store;
+	if ( docID < s.offsets.length && s.offsets[docID] >= 0 ) {
+	    return decode( slice( s.data, s.offsets[docID], s.lengths[docID] ));
+	}
+	return null;
+    }
+
+
+    /**  Returns the identifier of a term, adding it if it is new */
+    public int id( String term ) {
+	synchronized ( dictionary ) {
+	    return dictionary.add( term );
+	}
+    }
+
+    /**  Returns the term with the given identifier */
+    public String term( int termID ) {
+	synchronized ( dictionary ) {
+	    return dictionary.term( termID );
+	}
+    }
+
+
+    /**
+     *  Removes the vector of a document.
+     */
+    public synchronized void remove( int docID ) {
+	if ( docID >= 0 && docID < vectors.length && vectors[docID] != null ) {
+	    bytes -= vectors[docID].length;
+	    vectors[docID] = null;
+	}
+	Store s = store;
+	if ( docID >= 0 && docID < s.offsets.length && s.offsets[docID] >= 0 ) {
+	    // Forgotten in the file at the next commit()
+	    bytes -= s.lengths[docID];
+	    liveBytes -= s.lengths[docID];
+	    s.offsets[docID] = -1;
+	}
+    }
+
+
+    /**
+     *  Keeps the vectors in the files @code{file}, @code{file}.terms
+     *  and @code{file}.docs, reading the vectors already there. The
+     *  vectors in memory are discarded.
+     */
+    public synchronized void open( File file ) throws IOException {
+	this.file = file;
+	vectors = new byte[1024][];
+	bytes = 0;
+	TermDictionary terms = new TermDictionary();
+	File termsFile = termsFile();
+	if ( termsFile.exists() ) {
+	    BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( termsFile ), "UTF-8" ));
+	    try {
+		String line;
+		while (( line = in.readLine() ) != null ) {
+		    terms.add( line );
+		}
+	    }
+	    finally {
+		in.close();
+	    }
+	}
+	synchronized ( dictionary ) {
+	    dictionary = terms;
+	}
+	storedTerms = terms.size();
+	ByteBuffer[] data = map( file );
+	fileBytes = file.length();
+	long[] offsets = new long[0];
+	int[] lengths = new int[0];
+	liveBytes = 0;
+	if ( docsFile().exists() && data != null ) {
+	    DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( docsFile() )));
+	    try {
+		int n = in.readInt();
+		offsets = new long[n];
+		lengths = new int[n];
+		for ( int d=0; d<n; d++ ) {
+		    offsets[d] = in.readLong();
+		    lengths[d] = in.readInt();
+		    if ( offsets[d] + lengths[d] > fileBytes ) {
+			offsets[d] = -1;
+		    }
+		    if ( offsets[d] >= 0 ) {
+			liveBytes += lengths[d];
+		    }
+		}
+	    }
+	    finally {
+		in.close();
+	    }
+	}
+	bytes = liveBytes;
+	store = new Store( data, offsets, lengths );
+    }
+
+
+    /**
+     *  Appends the vectors in memory to the files, and from then on
+     *  reads them from there. Does nothing if the vectors are not kept
+     *  in files.
+     */
+    public synchronized void commit() throws IOException {
+	if ( file == null ) {
+	    return;
+	}
+	Store s = store;
+	byte[][] written = vectors;
+	int n = s.offsets.length;
+	for ( int d=s.offsets.length; d<written.length; d++ ) {
+	    if ( written[d] != null ) {
+		n = d+1;
+	    }
+	}
+	long[] offsets = Arrays.copyOf( s.offsets, n );
+	int[] lengths = Arrays.copyOf( s.lengths, n );
+	for ( int d=s.offsets.length; d<n; d++ ) {
+	    offsets[d] = -1;
+	}
+	// Append the new vectors
+	OutputStream out = new BufferedOutputStream( new FileOutputStream( file, true ), 1 << 16 );
+	try {
+	    for ( int d=0; d<written.length; d++ ) {
+		if ( written[d] != null ) {
+		    out.write( written[d] );
+		    offsets[d] = fileBytes;
+		    lengths[d] = written[d].length;
+		    fileBytes += written[d].length;
+		    liveBytes += written[d].length;
+		}
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	// Append the new terms
+	Writer termsOut = new OutputStreamWriter( new BufferedOutputStream( new FileOutputStream( termsFile(), true )), "UTF-8" );
+	try {
+	    synchronized ( dictionary ) {
+		for ( ; storedTerms<dictionary.size(); storedTerms++ ) {
+		    termsOut.write( dictionary.term( storedTerms ));
+		    termsOut.write( '\n' );
+		}
+	    }
+	}
+	finally {
+	    termsOut.close();
+	}
+	if ( fileBytes - liveBytes > liveBytes && fileBytes > MIN_COMPACTION ) {
+	    compact( offsets, lengths );
+	}
+	writeDocs( offsets, lengths );
+	store = new Store( map( file ), offsets, lengths );
+	// The written vectors can now be read from the file
+	vectors = new byte[written.length][];
+    }
+
+
+    /**  Bytes of all vectors */
+    public synchronized long getBytes() {
+	return bytes;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    private void put( int docID, Vector v ) {
+	sort( v );
+	ByteArrayOutputStream out = new ByteArrayOutputStream( 4 + 3*v.size );
+	try {
+	    PostingsCodec.writeVByte( out, v.size );
+	    int last = 0;
+	    for ( int i=0; i<v.size; i++ ) {
+		PostingsCodec.writeVByte( out, v.termIDs[i] - last );
+		PostingsCodec.writeVByte( out, v.frequencies[i] );
+		last = v.termIDs[i];
+	    }
+	}
+	catch ( IOException e ) {
+	    // Cannot happen with a ByteArrayOutputStream
+	    throw new RuntimeException( e );
+	}
+	byte[] encoded = out.toByteArray();
+	synchronized ( this ) {
+	    if ( docID >= vectors.length ) {
+		vectors = Arrays.copyOf( vectors, Math.max( docID+1, 2*vectors.length ));
+	    }
+	    if ( vectors[docID] != null ) {
+		bytes -= vectors[docID].length;
+	    }
+	    Store s = store;
+	    if ( docID < s.offsets.length && s.offsets[docID] >= 0 ) {
+		bytes -= s.lengths[docID];
+		liveBytes -= s.lengths[docID];
+		s.offsets[docID] = -1;
+	    }
+	    vectors[docID] = encoded;
+	    bytes += encoded.length;
+	}
+    }
+
+
+    /**
+     *  Sorts the terms of a vector by identifier, adding up the
+     *  frequencies of repeated terms.
+     */
+    private static void sort( Vector v ) {
+	long[] pairs = new long[v.size];
+	for ( int i=0; i<v.size; i++ ) {
+	    pairs[i] = ( (long)v.termIDs[i] << 32 ) | v.frequencies[i];
+	}
+	Arrays.sort( pairs );
+	int n = 0;
+	for ( int i=0; i<pairs.length; i++ ) {
+	    int termID = (int)( pairs[i] >>> 32 );
+	    int frequency = (int)pairs[i];
+	    if ( n > 0 && v.termIDs[n-1] == termID ) {
+		v.frequencies[n-1] += frequency;
+	    }
+	    else {
+		v.termIDs[n] = termID;
+		v.frequencies[n] = frequency;
+		n++;
+	    }
+	}
+	v.size = n;
+    }
+
+
+    private static Vector decode( ByteBuffer buf ) {
+	Vector v = new Vector( PostingsCodec.readVByte( buf ));
+	int termID = 0;
+	for ( int i=0; i<v.termIDs.length; i++ ) {
+	    termID += PostingsCodec.readVByte( buf );
+	    v.termIDs[i] = termID;
+	    v.frequencies[i] = PostingsCodec.readVByte( buf );
+	}
+	v.size = v.termIDs.length;
+	return v;
+    }
+
+
+    /**
+     *  Rewrites the data file with only the vectors in use, and updates
+     *  their offsets.
+     */
+    private void compact( long[] offsets, int[] lengths ) throws IOException {
+	ByteBuffer[] data = map( file );
+	File tmp = new File( file.getPath() + ".tmp" );
+	OutputStream out = new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 );
+	long position = 0;
+	try {
+	    byte[] buf = new byte[256];
+	    for ( int d=0; d<offsets.length; d++ ) {
+		if ( offsets[d] < 0 ) {
+		    continue;
+		}
+		if ( lengths[d] > buf.length ) {
+		    buf = new byte[lengths[d]];
+		}
+		slice( data, offsets[d], lengths[d] ).get( buf, 0, lengths[d] );
+		out.write( buf, 0, lengths[d] );
+		offsets[d] = position;
+		position += lengths[d];
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	// The old docs file must not be used with the new data file
+	docsFile().delete();
+	if ( !tmp.renameTo( file )) {
+	    file.delete();
+	    if ( !tmp.renameTo( file )) {
+		throw new IOException( "Couldn't rename " + tmp + " to " + file );
+	    }
+	}
+	fileBytes = position;
+	liveBytes = position;
+    }
+
+
+    private void writeDocs( long[] offsets, int[] lengths ) throws IOException {
+	File tmp = new File( docsFile().getPath() + ".tmp" );
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ));
+	try {
+	    out.writeInt( offsets.length );
+	    for ( int d=0; d<offsets.length; d++ ) {
+		out.writeLong( offsets[d] );
+		out.writeInt( lengths[d] );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	docsFile().delete();
+	if ( !tmp.renameTo( docsFile() )) {
+	    throw new IOException( "Couldn't rename " + tmp + " to " + docsFile() );
+	}
+    }
+
+
+    /**
+     *  Maps a file into memory, in windows of 2^WINDOW_BITS bytes, or
+     *  returns null if it does not exist.
+     */
+    private static ByteBuffer[] map( File file ) throws IOException {
+	if ( !file.exists() ) {
+	    return null;
+	}
+	RandomAccessFile raf = new RandomAccessFile( file, "r" );
+	try {
+	    // The mappings stay valid after the channel is closed
+	    FileChannel channel = raf.getChannel();
+	    long size = channel.size();
+	    ByteBuffer[] windows = new ByteBuffer[(int)(( size + ( 1L << WINDOW_BITS ) - 1 ) >>> WINDOW_BITS )];
+	    for ( int i=0; i<windows.length; i++ ) {
+		long start = (long)i << WINDOW_BITS;
+		windows[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( 1L << WINDOW_BITS, size - start ));
+	    }
+	    return windows;
+	}
+	finally {
+	    raf.close();
+	}
+    }
+
+
+    /**
+     *  Returns a buffer positioned at the @code{length} bytes from
+     *  @code{offset} of a mapped file. Bytes that continue into the next
+     *  window are copied.
+     */
+    private static ByteBuffer slice( ByteBuffer[] data, long offset, int length ) {
+	int i = (int)( offset >>> WINDOW_BITS );
+	int pos = (int)( offset & (( 1 << WINDOW_BITS ) - 1 ));
+	ByteBuffer b = data[i].duplicate();
+	b.position( pos );
+	if ( b.remaining() >= length ) {
+	    return b;
+	}
+	byte[] bytes = new byte[length];
+	int n = 0;
+	while ( n < length ) {
+	    int k = Math.min( length-n, b.remaining() );
+	    b.get( bytes, n, k );
+	    n += k;
+	    if ( n < length ) {
+		b = data[++i].duplicate();
+	    }
+	}
+	return ByteBuffer.wrap( bytes );
+    }
+
+
+    private File termsFile() {
+	return new File( file.getPath() + ".terms" );
+    }
+
+    private File docsFile() {
+	return new File( file.getPath() + ".docs" );
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ *   A sorted list of terms, front-coded: each term is stored as the
+ *   number of leading characters it shares with the previous term,
+ *   followed by the rest of its characters. Sorted vocabularies share
+ *   long prefixes, so this takes a fraction of the memory of the
+ *   Strings themselves.
+ *
+ *   Every BLOCK_SIZE-th term is stored in full, so that a term can be
+ *   found by binary search over the block heads followed by a scan of
+ *   one block. Terms are numbered by their rank 0, 1, 2, ... in
+ *   sorted order. Terms are appended in increasing order with add().
+ */
+public class FrontCodedLexicon implements Serializable {
+
+    private static final long serialVersionUID = 1277533391535654055L;
+
+    /** Number of terms per block. */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     *  For each term: the length of the prefix shared with the previous
+     *  term, the length of the suffix, and the suffix.
+     */
+    private char[] data = new char[1024];
+    private int length = 0;
+
+    /** Position in @code{data} of the first term of each block. */
+    private int[] blocks = new int[64];
+
+    /** Number of terms. */
+    private int size = 0;
+
+    /** The last term added. */
+    private String last = null;
+
+
+    /**  Number of terms in the lexicon */
+    public int size() {
+	return size;
+    }
+
+
+    /**
+     *  Appends a term, which must be greater than all terms added before.
+     */
+    public void add( String term ) {
+	if ( last != null && last.compareTo( term ) >= 0 ) {
+	    throw new IllegalArgumentException( "Terms out of order: " + last + ", " + term );
+	}
+	if ( term.length() > Character.MAX_VALUE ) {
+	    throw new IllegalArgumentException( "Term too long: " + term.length() + " characters" );
+	}
+	int shared = 0;
+	if ( size % BLOCK_SIZE == 0 ) {
+	    int b = size / BLOCK_SIZE;
+	    if ( b == blocks.length ) {
+		blocks = Arrays.copyOf( blocks, 2*b );
+	    }
+	    blocks[b] = length;
+	}
+	else {
+	    int n = Math.min( last.length(), term.length() );
+	    while ( shared < n && last.charAt( shared ) == term.charAt( shared )) {
+		shared++;
+	    }
+	}
+	int suffix = term.length() - shared;
+	if ( length+2+suffix > data.length ) {
+	    data = Arrays.copyOf( data, Math.max( length+2+suffix, 2*data.length ));
+	}
+	data[length++] = (char)shared;
+	data[length++] = (char)suffix;
+	term.getChars( shared, term.length(), data, length );
+	length += suffix;
+	last = term;
+	size++;
+    }
+
+
+    /**
+     *  Returns the term with the given rank.
+     */
+    public String term( int rank ) {
+	if ( rank < 0 || rank >= size ) {
+	    throw new IndexOutOfBoundsException( "Rank: " + rank + ", Size: " + size );
+	}
+	Cursor c = cursor( rank );
+	c.next();
+	return c.toString();
+    }
+
+
+    /**
+     *  Returns the rank of @code{term}. If the term is not in the
+     *  lexicon, returns (-(insertion point) - 1), like
+     *  Arrays.binarySearch, where the insertion point is the rank of the
+     *  first term greater than @code{term}.
+     */
+    public int find( String term ) {
+	// Find the last block whose head is <= term
+	int lo = 0, hi = ( size + BLOCK_SIZE - 1 ) / BLOCK_SIZE - 1;
+	int block = -1;
+	while ( lo <= hi ) {
+	    int mid = ( lo + hi ) >>> 1;
+	    int c = compareHead( mid, term );
+	    if ( c == 0 ) {
+		return mid * BLOCK_SIZE;
+	    }
+	    if ( c < 0 ) {
+		block = mid;
+		lo = mid+1;
+	    }
+	    else {
+		hi = mid-1;
+	    }
+	}
+	if ( block < 0 ) {
+	    return -1;
+	}
+	// Scan the block
+	Cursor c = cursor( block * BLOCK_SIZE );
+	c.next();
+	while ( c.next() && c.rank() < ( block+1 ) * BLOCK_SIZE ) {
+	    int cmp = c.compareTo( term );
+	    if ( cmp == 0 ) {
+		return c.rank();
+	    }
+	    if ( cmp > 0 ) {
+		return -c.rank()-1;
+	    }
+	}
+	return -Math.min( ( block+1 ) * BLOCK_SIZE, size )-1;
+    }
+
+
+    /**
+     *  Returns a new lexicon with the terms of both @code{a} and @code{b}.
+     */
+    public static FrontCodedLexicon union( FrontCodedLexicon a, FrontCodedLexicon b ) {
+	FrontCodedLexicon result = new FrontCodedLexicon();
+	Cursor x = a.cursor( 0 ), y = b.cursor( 0 );
+	boolean moreX = x.next(), moreY = y.next();
+	while ( moreX || moreY ) {
+	    int c = !moreY ? -1 : ( !moreX ? 1 : x.compareTo( y ));
+	    if ( c <= 0 ) {
+		result.add( x.toString() );
+		if ( c == 0 ) {
+		    moreY = y.next();
+		}
+		moreX = x.next();
+	    }
+	    else {
+		result.add( y.toString() );
+		moreY = y.next();
+	    }
+	}
+	return result;
+    }
+
+
+    /**
+     *  Returns a cursor whose first call to next() moves to the term
+     *  with the given rank.
+     */
+    public Cursor cursor( int rank ) {
+	Cursor c = new Cursor();
+	if ( rank >= size ) {
+	    c.rank = size-1;
+	    c.pos = length;
+	    return c;
+	}
+	int block = rank / BLOCK_SIZE;
+	c.rank = block * BLOCK_SIZE - 1;
+	c.pos = blocks[block];
+	while ( c.rank < rank-1 ) {
+	    c.next();
+	}
+	c.first = true;
+	return c;
+    }
+
+
+    /**
+     *  Visits the terms in sorted order, decoding each term from the
+     *  previous one. The current term is term()[0..length()-1], and
+     *  the first shared() characters are the same as in the previous
+     *  term visited by the cursor.
+     */
+    public class Cursor {
+
+	private char[] term = new char[64];
+	private int termLength = 0;
+	private int shared = 0;
+	private int rank;
+	private int pos;
+	private boolean first = true;
+
+	/**  Moves to the next term. @return @code{false} at the end */
+	public boolean next() {
+	    if ( rank+1 >= size ) {
+		rank = size;
+		return false;
+	    }
+	    rank++;
+	    shared = data[pos++];
+	    int suffix = data[pos++];
+	    if ( shared+suffix > term.length ) {
+		term = Arrays.copyOf( term, Math.max( shared+suffix, 2*term.length ));
+	    }
+	    System.arraycopy( data, pos, term, shared, suffix );
+	    pos += suffix;
+	    termLength = shared+suffix;
+	    if ( first ) {
+		// Nothing is shared with a term this cursor hasn't visited
+		shared = 0;
+		first = false;
+	    }
+	    return true;
+	}
+
+	/**
+	 *  Skips the terms after the current one that start with its
+	 *  first n characters, so that next() moves to the first term
+	 *  after them. Within a block the skipped terms are not decoded;
+	 *  longer skips binary search the block heads. term() is undefined
+	 *  until next() is called.
+	 */
+	public void skipPrefix( int n ) {
+	    while ( rank+1 < size ) {
+		if ( ( rank+1 ) % BLOCK_SIZE != 0 ) {
+		    // A term shares the prefix iff it shares n characters
+		    // with the previous term
+		    if ( data[pos] < n ) {
+			return;
+		    }
+		}
+		else {
+		    // Find the first block whose head lacks the prefix
+		    int first = ( rank+1 ) / BLOCK_SIZE;
+		    int lo = first, hi = ( size + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+		    while ( lo < hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( headStartsWith( mid, term, n )) {
+			    lo = mid+1;
+			}
+			else {
+			    hi = mid;
+			}
+		    }
+		    if ( lo == first ) {
+			return;
+		    }
+		    // The prefix may go on in the block before that one
+		    rank = ( lo-1 ) * BLOCK_SIZE - 1;
+		    pos = blocks[lo-1];
+		}
+		pos += 2 + data[pos+1];
+		rank++;
+	    }
+	}
+
+	/**  The characters of the current term */
+	public char[] term() {
+	    return term;
+	}
+
+	/**  The length of the current term */
+	public int length() {
+	    return termLength;
+	}
+
+	/**  Number of leading characters shared with the previous term */
+	public int shared() {
+	    return shared;
+	}
+
+	/**  The rank of the current term */
+	public int rank() {
+	    return rank;
+	}
+
+	/**  Compares the current term with @code{s} */
+	public int compareTo( String s ) {
+	    int n = Math.min( termLength, s.length() );
+	    for ( int i=0; i<n; i++ ) {
+		int c = term[i] - s.charAt( i );
+		if ( c != 0 ) {
+		    return c;
+		}
+	    }
+	    return termLength - s.length();
+	}
+
+	/**  Compares the current term with that of another cursor */
+	public int compareTo( Cursor other ) {
+	    int n = Math.min( termLength, other.termLength );
+	    for ( int i=0; i<n; i++ ) {
+		int c = term[i] - other.term[i];
+		if ( c != 0 ) {
+		    return c;
+		}
+	    }
+	    return termLength - other.termLength;
+	}
+
+	public String toString() {
+	    return new String( term, 0, termLength );
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  @code{true} if the first term of a block starts with t[0..n-1].
+     */
+    private boolean headStartsWith( int block, char[] t, int n ) {
+	int pos = blocks[block];
+	if ( data[pos+1] < n ) {
+	    return false;
+	}
+	pos += 2;
+	for ( int i=0; i<n; i++ ) {
+	    if ( data[pos+i] != t[i] ) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+
+    /**
+     *  Compares the first term of a block with @code{s}.
+     */
+    private int compareHead( int block, String s ) {
+	int pos = blocks[block];
+	int len = data[pos+1];
+	pos += 2;
+	int n = Math.min( len, s.length() );
+	for ( int i=0; i<n; i++ ) {
+	    int c = data[pos+i] - s.charAt( i );
+	    if ( c != 0 ) {
+		return c;
+	    }
+	}
+	return len - s.length();
+    }
+}
@@ -1,175 +1,258 @@
-/*  
- *   This file is part of the computer assignment for the
- *   Information Retrieval course at KTH.
- * 
- *   First version:  Johan Boye, 2010
- *   Second version: Johan Boye, 2012
- *   Additions: Hedvig Kjellström, 2012
- */  
-
-
-package ir;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.HashMap;
-
-/**
- *   Implements an inverted index as a Hashtable from words to PostingsLists.
- */
-public class HashedIndex implements Index {
-
-    /** The index as a hashtable. */
-    private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
-
-
-    /**
-     *  Inserts this token in the index.
-     */
-    public void insert( String token, int docID, int offset ) {
-    	PostingsList list = index.get(token);
-    	if (list == null) {
-    		list = new PostingsList();
-    	}
-    	list.add(docID,offset);
-        index.put(token, list);
-		
-    }
-
-
-    /**
-     *  Returns the postings for a specific term, or null
-     *  if the term is not in the index.
-     */
-    public PostingsList getPostings( String token ) {
-        return index.get(token);
-    }
-
-
-    /**
-     *  Searches the index for postings matching the query.
-     */
-    public PostingsList search( Query query, int queryType, int rankingType ) {
-        ArrayList<PostingsList> postingsLists = new ArrayList<PostingsList>();
-        for (String term : query.terms) postingsLists.add(index.get(term));
-	if (queryType == INTERSECTION_QUERY) {
-	    if (postingsLists.size() > 1) return intersection(postingsLists);
-	    return postingsLists.get(0);
-	} else if (queryType == PHRASE_QUERY) {
-	    if (postingsLists.size() > 1) return phrase(postingsLists, query.terms);
-	    return postingsLists.get(0);
-	}
-	return postingsLists.get(0);
-    }
-
-    private PostingsList phrase(ArrayList<PostingsList> postingsLists, LinkedList<String> terms) {
-	System.out.println(terms);
-
-        PostingsList result = new PostingsList();
-        Iterator<PostingsList> iterator = postingsLists.iterator();
-        PostingsList p1 = iterator.next();
-        PostingsList p2 = iterator.next();
-        p1.sortByDocID();
-        p2.sortByDocID();
-        Iterator<PostingsEntry> itP1,itP2;
-        PostingsEntry pe1,pe2;
-	int currentTerm = 0;
-	boolean first = true;
-        while (iterator.hasNext() || first){
-	    if (!first) {
-		p2 = iterator.next();
-                p2.sortByDocID();
-		currentTerm++;
-	    }
-            itP1 = p1.iterator();
-            itP2 = p2.iterator();
-            pe1 = itP1.next();
-            pe2 = itP2.next();
-            while (itP1.hasNext() && itP2.hasNext()){
-
-                if (pe1.docID == pe2.docID){
-		    boolean found = false;
-		    for (int offset1 : pe1.offsets) {
-			for (int offset2 : pe2.offsets) {
-			    if (offset2-offset1 > 0 &&
-				offset2 - offset1 < terms.get(currentTerm).length()+1){
-				result.add(pe2);
-				found = true;
-				break;
-			    }
-			}
-			if (found) break;
-		    }
-		    pe1 = itP1.next();
-		    pe2 = itP2.next();
-                }
-                else if (pe1.docID < pe2.docID){
-		    pe1 = itP1.next();
-		}
-                else {
-		    pe2 = itP2.next();
-		}
-            }
-	    first = false;
-            if (result.size()>0 && iterator.hasNext()) {
-                result.sortByDocID();
-                p1 = result;
-                result = new PostingsList();
-                System.out.println("Starting new intersection. Previous intersection size: "+p1.size());
-
-            }
-        }
-        result.sortByDocID();
-        return result;
-    }
-
-    private PostingsList intersection(ArrayList<PostingsList> postingsLists) {
-        PostingsList result = new PostingsList();
-        Iterator<PostingsList> iterator = postingsLists.iterator();
-        PostingsList p1 = iterator.next();
-        PostingsList p2 = iterator.next();
-        p1.sortByDocID();
-        p2.sortByDocID();
-        Iterator<PostingsEntry> itP1,itP2;
-	boolean first = true;
-        PostingsEntry pe1,pe2;
-        while (iterator.hasNext()||first){
-	    if (!first) {
-		p2 = iterator.next();
-                p2.sortByDocID();	    
-	    }
-            itP1 = p1.iterator();
-            itP2 = p2.iterator();
-            pe1 = itP1.next();
-            pe2 = itP2.next();
-            while (itP1.hasNext() && itP2.hasNext()){
-                if (pe1.docID == pe2.docID) {
-                    System.out.println("Adding docID "+pe1.docID);
-
-                    result.add(pe1);
-                    pe1 = itP1.next();
-                    pe2 = itP2.next();
-                }
-                else if (pe1.docID < pe2.docID) pe1 = itP1.next();
-                else pe2 = itP2.next();
-            }
-	    first = false;
-            if (result.size()>0 && iterator.hasNext()) {
-                result.sortByDocID();
-                p1 = result;
-                result = new PostingsList();
-                System.out.println("Starting new intersection. Previous intersection size: "+p1.size());
-
-            }
-        }
-        result.sortByDocID();
-        return result;
-    }
-
-    /**
-     *  No need for cleanup in a HashedIndex.
-     */
-    public void cleanup() {
-    }
-}
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   First version:  Johan Boye, 2010
+ *   Second version: Johan Boye, 2012
+ *   Additions: Hedvig Kjellström, 2012
+ */  
+
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *   Implements an inverted index in memory. Terms are given dense
+ *   integer identifiers by a TermDictionary, and the postings lists
+ *   are kept in an array indexed by term identifier.
+ */
+public class HashedIndex implements Index {
+
+    /** The terms of the index. */
+    private TermDictionary dictionary = new TermDictionary();
+
+    /** The postings of term i are postings[i]. */
+    private PostingsList[] postings = new PostingsList[1024];
+
+    /** Number of tokens inserted. */
+    private long tokenCount = 0;
+
+    /** Number of (term, document) pairs in all postings lists. */
+    private long postingCount = 0;
+
+    /**
+     *  Approximate heap use of a term with its dictionary entry and an
+     *  empty postings list, of a document in a postings list, and of a
+     *  position, in bytes. Measured on a 64-bit JVM.
+     */
+    private static final int BYTES_PER_TERM = 216;
+    private static final int BYTES_PER_POSTING = 10;
+    private static final int BYTES_PER_TOKEN = 6;
+
+    /** The terms in sorted order, or null if terms have been added since. */
+    private FrontCodedLexicon lexicon;
+
+    /**
+     *  Names and lengths of the documents recorded with addDocument(),
+     *  keyed by docID like Index.docIDs. Used by partial indexes, which
+     *  carry their documents to the main index.
+     */
+    private HashMap<String,String> documentNames = new HashMap<String,String>();
+    private HashMap<String,Integer> documentLengths = new HashMap<String,Integer>();
+
+
+    /**
+     *  Inserts this token in the index.
+     */
+    public void insert( String token, int docID, int offset ) {
+        insert( dictionary.add( token ), docID, offset );
+    }
+
+
+    /**
+     *  Inserts the token buf[off..off+len-1] in the index, without
+     *  creating a String for it unless the term is new.
+     */
+    public void insert( char[] buf, int off, int len, int docID, int offset ) {
+        insert( dictionary.add( buf, off, len ), docID, offset );
+    }
+
+
+    private void insert( int termID, int docID, int offset ) {
+        PostingsList list = postingsOf( termID );
+        int n = list.size();
+        list.add( docID, offset );
+        postingCount += list.size() - n;
+        tokenCount++;
+    }
+
+
+    /**
+     *  Records the name and length of a document indexed into this index.
+     */
+    public void addDocument( int docID, String name, int length ) {
+        documentNames.put( "" + docID, name );
+        documentLengths.put( "" + docID, length );
+    }
+
+
+    /**  The document names recorded with addDocument() */
+    public HashMap<String,String> getDocumentNames() {
+        return documentNames;
+    }
+
+
+    /**  The document lengths recorded with addDocument() */
+    public HashMap<String,Integer> getDocumentLengths() {
+        return documentLengths;
+    }
+
+
+    /**
+     *  Returns the number of tokens in the index.
+     */
+    public long tokenCount() {
+        return tokenCount;
+    }
+
+
+    /**
+     *  Returns the approximate heap use of the terms and postings, in
+     *  bytes. Takes constant time.
+     */
+    public long memoryUse() {
+        return dictionary.size() * (long)BYTES_PER_TERM + postingCount * BYTES_PER_POSTING + tokenCount * BYTES_PER_TOKEN;
+    }
+
+
+    /**
+     *  Returns the number of terms in the index.
+     */
+    public int termCount() {
+        return dictionary.size();
+    }
+
+
+    /**
+     *  Merges a partial index, built by one indexing thread, into
+     *  this index.
+     */
+    public synchronized void insertAll( HashedIndex partial ) {
+        for ( int i=0; i<partial.dictionary.size(); i++ ) {
+            int termID = dictionary.add( partial.dictionary, i );
+            PostingsList list = partial.postings[i];
+            ensureCapacity( termID+1 );
+            if ( postings[termID] != null ) {
+                postingCount -= postings[termID].size();
+                list = PostingsList.merge( postings[termID], list );
+            }
+            postingCount += list.size();
+            postings[termID] = list;
+        }
+        tokenCount += partial.tokenCount();
+    }
+
+
+    /**
+     *  Returns the dictionary (the terms in the index).
+     */
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+
+    /**
+     *  Returns the terms of the index in sorted order. The lexicon is
+     *  built on first use after new terms have been added.
+     */
+    public synchronized FrontCodedLexicon getLexicon() {
+        if ( lexicon == null || lexicon.size() != dictionary.size() ) {
+            FrontCodedLexicon l = new FrontCodedLexicon();
+            for ( int id : dictionary.sortedIDs() ) {
+                l.add( dictionary.term( id ));
+            }
+            lexicon = l;
+        }
+        return lexicon;
+    }
+
+
+    /**
+     *  Returns all terms with their postings, in sorted order.
+     */
+    public TermStream getTerms() {
+        return new MemoryTermStream( dictionary, postings );
+    }
+
+
+    /**
+     *  Returns the postings for a specific term, or null
+     *  if the term is not in the index.
+     */
+    public PostingsList getPostings( String token ) {
+        int termID = dictionary.find( token );
+        return termID < 0 ? null : postings[termID];
+    }
+
+
+    /**
+     *  Returns the number of documents containing a term.
+     */
+    public int documentFrequency( String token ) {
+        PostingsList list = getPostings( token );
+        return list == null ? 0 : list.size();
+    }
+
+
+    /**
+     *  Returns the postings of the term with the given identifier in
+     *  the dictionary, or null.
+     */
+    PostingsList getPostings( int termID ) {
+        return termID < postings.length ? postings[termID] : null;
+    }
+
+
+    /**
+     *  Removes all terms and postings.
+     */
+    public synchronized void clear() {
+        dictionary = new TermDictionary();
+        postings = new PostingsList[1024];
+        tokenCount = 0;
+        postingCount = 0;
+        lexicon = null;
+        documentNames.clear();
+        documentLengths.clear();
+    }
+
+
+    /**
+     *  Searches the index for postings matching the query.
+     */
+    public PostingsList search( Query query, int queryType, int rankingType ) {
+        ArrayList<PostingsList> postingsLists = new ArrayList<PostingsList>();
+        for (String term : query.terms) postingsLists.add(TermExpander.getPostings(this, term));
+        return QueryEngine.search(postingsLists, query, queryType, rankingType);
+    }
+
+    /**
+     *  No need for cleanup in a HashedIndex.
+     */
+    public void cleanup() {
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Returns the postings list of a term, creating it if needed.
+     */
+    private PostingsList postingsOf( int termID ) {
+        ensureCapacity( termID+1 );
+        if ( postings[termID] == null ) {
+            postings[termID] = new PostingsList();
+        }
+        return postings[termID];
+    }
+
+    private void ensureCapacity( int capacity ) {
+        if ( capacity > postings.length ) {
+            postings = Arrays.copyOf( postings, Math.max( capacity, 2*postings.length ));
+        }
+    }
+}
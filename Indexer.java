@@ -1,173 +1,855 @@
-/*  
- *   This file is part of the computer assignment for the
- *   Information Retrieval course at KTH.
- * 
- *   First version:  Johan Boye, 2010
- *   Second version: Johan Boye, 2012
- */  
-
-
-package ir;
-
-import java.io.File;
-import java.io.Reader;
-import java.io.FileReader;
-import java.io.StringReader;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.io.IOException;
-import java.util.LinkedList;
-import org.apache.pdfbox.cos.COSDocument;
-import org.apache.pdfbox.pdfparser.*;
-import org.apache.pdfbox.util.PDFTextStripper;
-import org.apache.pdfbox.pdmodel.PDDocument;
-
-
-/**
- *   Processes a directory structure and indexes all PDF and text files.
- */
-public class Indexer {
-
-	/** The index to be built up by this indexer. */
-	public Index index;
-
-	/** The next docID to be generated. */
-	private int lastDocID = 0;
-
-
-	/* ----------------------------------------------- */
-
-
-	/** Generates a new document identifier as an integer. */
-	private int generateDocID() {
-		return lastDocID++;
-	}
-
-	/** Generates a new document identifier based on the file name. */
-	private int generateDocID( String s ) {
-		return s.hashCode();
-	}
-
-
-	/* ----------------------------------------------- */
-
-
-	/**
-	 *  Initializes the index as a HashedIndex.
-	 */
-	public Indexer() {
-		index = new HashedIndex();
-	}
-
-	/** 
-	 *  Initializes the index as a MegaIndex.
-	 */
-	public Indexer( LinkedList<String> indexfiles ) {
-		index = new MegaIndex( indexfiles );
-	}
-
-
-	/* ----------------------------------------------- */
-
-
-	/**
-	 *  Tokenizes and indexes the file @code{f}. If @code{f} is a directory,
-	 *  all its files and subdirectories are recursively processed.
-	 */
-	public void processFiles( File f ) {
-		// do not try to index fs that cannot be read
-		if ( f.canRead() ) {
-			if ( f.isDirectory() ) {
-				String[] fs = f.list();
-				// an IO error could occur
-				if ( fs != null ) {
-					for ( int i=0; i<fs.length; i++ ) {
-						processFiles( new File( f, fs[i] ));
-					}
-				}
-			} else {
-				System.err.println( "Indexing " + f.getPath() );
-				// First register the document and get a docID
-				int docID;
-				if ( index instanceof HashedIndex ) {
-					// For HashedIndex, use integers.
-					docID = generateDocID();
-				}
-				else {
-					// For MegaIndex, use hash codes based on file names.
-					try {
-						docID = generateDocID( f.getCanonicalPath() );
-					}
-					catch( IOException e ) {
-						docID = generateDocID( f.getPath() );
-					}
-				}
-				index.docIDs.put( "" + docID, f.getPath() );
-				try {
-					//  Read the first few bytes of the file to see if it is 
-					// likely to be a PDF 
-					Reader reader = new FileReader( f );
-					char[] buf = new char[4];
-					reader.read( buf, 0, 4 );
-					if ( buf[0] == '%' && buf[1]=='P' && buf[2]=='D' && buf[3]=='F' ) {
-						// We assume this is a PDF file
-						try {
-							String contents = extractPDFContents( f );
-							reader = new StringReader( contents );
-						}
-						catch ( IOException e ) {
-							// Perhaps it wasn't a PDF file after all
-							reader = new FileReader( f );
-						}
-					}
-					else {
-						// We hope this is ordinary text
-						reader = new FileReader( f );
-					}
-					SimpleTokenizer tok = new SimpleTokenizer( reader );
-					int offset = 0;
-					while ( tok.hasMoreTokens() ) {
-						insertIntoIndex( docID, tok.nextToken(), offset++ );
-					}
-					index.docLengths.put( "" + docID, offset );
-					reader.close();
-				}
-				catch ( IOException e ) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-
-
-	/* ----------------------------------------------- */
-
-
-	/**
-	 *  Extracts the textual contents from a PDF file as one long string.
-	 */
-	public String extractPDFContents( File f ) throws IOException {
-		FileInputStream fi = new FileInputStream( f );
-		PDFParser parser = new PDFParser( fi );   
-		parser.parse();   
-		fi.close();
-		COSDocument cd = parser.getDocument();   
-		PDFTextStripper stripper = new PDFTextStripper();   
-		String result = stripper.getText( new PDDocument( cd ));  
-		cd.close();
-		return result;
-	}
-
-
-	/* ----------------------------------------------- */
-
-
-	/**
-	 *  Indexes one token.
-	 */
-	public void insertIntoIndex( int docID, String token, int offset ) {
-		index.insert( token, docID, offset );
-	}
-}
-
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   First version:  Johan Boye, 2010
+ *   Second version: Johan Boye, 2012
+ */  
+
+
+package ir;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *   Processes a directory structure and indexes all PDF and text files.
+ */
+public class Indexer {
+
+	/** The index to be built up by this indexer. */
+	public Index index;
+
+	/** The next docID to be generated. */
+	private int lastDocID = 0;
+
+	/** Number of threads tokenizing and indexing files. */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 *  Number of threads indexing PDF files. The other threads pass the
+	 *  PDF files they find on to these, so that slow PDF extraction
+	 *  does not hold up text files.
+	 */
+	private int pdfThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+
+	/** Maximum number of files waiting to be indexed. */
+	private static final int QUEUE_LENGTH = 1024;
+
+	/**
+	 *  Maximum number of PDF files waiting, open, for the PDF threads.
+	 *  When that many are waiting, a thread that finds one more indexes
+	 *  it itself, rather than wait or hold more files open.
+	 */
+	private static final int PDF_QUEUE_LENGTH = 64;
+
+	/**
+	 *  A worker hands its partial index over to the main index when it
+	 *  holds this many tokens, which bounds the memory used per thread.
+	 */
+	private static final long PARTIAL_INDEX_TOKENS = 1 << 22;
+
+	/** Put on the file queue to tell a worker thread to stop. */
+	private static final Source END_OF_QUEUE = new Source( new File( "" ));
+
+	/**
+	 *  The index, if it can be updated incrementally. Then only new and
+	 *  changed files are indexed, and the documents of changed and
+	 *  removed files are deleted.
+	 */
+	private MappedSegmentIndex incremental;
+
+	/** Number of documents indexed or deleted by the current run. */
+	private AtomicInteger changes = new AtomicInteger();
+
+	/** The documents added to the index by the current run. */
+	private final BitSet added = new BitSet();
+
+	/**
+	 *  Number of documents added since the norms of all documents were
+	 *  computed. Their norms were computed with the idfs of their time.
+	 */
+	private int addedSinceNorms = 0;
+
+	/** Time to wait for more changes after a watched file has changed. */
+	private static final long WATCH_DELAY = 500;
+
+	/** Held while files are processed, so that runs don't overlap. */
+	private final Object processLock = new Object();
+
+	/** Search results to invalidate when the index changes, or null. */
+	private QueryCache cache;
+
+
+	/* ----------------------------------------------- */
+
+
+	/** Generates a new document identifier as an integer. */
+	private synchronized int generateDocID() {
+		Index.docTable.reserve( lastDocID+1 );
+		return lastDocID++;
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  Initializes the index as a HashedIndex.
+	 */
+	public Indexer() {
+		index = new HashedIndex();
+	}
+
+	/** 
+	 *  Initializes the index as a MegaIndex.
+	 */
+	public Indexer( LinkedList<String> indexfiles ) {
+		index = new MegaIndex( indexfiles );
+		lastDocID = Index.docTable.size();
+	}
+
+	/**
+	 *  Uses the given index. Documents that are already in the index
+	 *  keep their docIDs, new documents are numbered after them.
+	 */
+	public Indexer( Index index ) {
+		this.index = index;
+		lastDocID = Index.docTable.size();
+		if ( index instanceof MappedSegmentIndex ) {
+			incremental = (MappedSegmentIndex)index;
+			// Deleted documents may still be in the index files
+			lastDocID = Math.max( lastDocID, incremental.getManifest().getNextDocID() );
+		}
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  Sets the number of threads used by processFiles.
+	 */
+	public void setThreads( int threads ) {
+		this.threads = Math.max( 1, threads );
+	}
+
+
+	/**
+	 *  Sets the number of threads used by processFiles for PDF files.
+	 */
+	public void setPDFThreads( int threads ) {
+		pdfThreads = Math.max( 1, threads );
+	}
+
+
+	/**
+	 *  Sets the cache of search results that must be invalidated
+	 *  whenever the index changes.
+	 */
+	public void setCache( QueryCache cache ) {
+		this.cache = cache;
+	}
+
+
+	/**
+	 *  Tokenizes and indexes the file @code{f}. If @code{f} is a directory,
+	 *  all its files and subdirectories are recursively processed.
+	 *
+	 *  The calling thread walks the directory structure and puts the
+	 *  files on a queue. A pool of worker threads takes files from the
+	 *  queue and indexes them into private, in-memory partial indexes,
+	 *  so the workers never wait for each other. A partial index is
+	 *  merged into @code{index} when it grows too large and when all
+	 *  files have been processed. Each file is opened once, by the
+	 *  worker that takes it. A worker that finds a PDF file (told by
+	 *  its first bytes) passes it on, still open, to a pool of PDF
+	 *  workers, whose text is extracted a few pages at a time as it is
+	 *  tokenized (see PDFTextReader).
+	 *
+	 *  If the index is incremental, files whose time stamp and size are
+	 *  as recorded in the manifest are skipped without being read, and
+	 *  files below @code{f} that are in the manifest but no longer on
+	 *  disk are deleted from the index.
+	 */
+	public void processFiles( File f ) {
+		processFiles( Collections.singletonList( f ));
+	}
+
+
+	/**
+	 *  Processes several files or directories in one run.
+	 */
+	public void processFiles( Collection<File> roots ) {
+		synchronized ( processLock ) {
+			processFilesLocked( roots );
+		}
+	}
+
+
+	private void processFilesLocked( Collection<File> roots ) {
+		changes.set( 0 );
+		added.clear();
+		BlockingQueue<Source> queue = new ArrayBlockingQueue<Source>( QUEUE_LENGTH );
+		BlockingQueue<Source> pdfQueue = new ArrayBlockingQueue<Source>( PDF_QUEUE_LENGTH );
+		Thread[] workers = new Thread[threads+pdfThreads];
+		for ( int i=0; i<workers.length; i++ ) {
+			if ( i < threads ) {
+				workers[i] = new Thread( new Worker( queue, pdfQueue ), "indexer-" + i );
+			}
+			else {
+				workers[i] = new Thread( new Worker( pdfQueue, null ), "indexer-pdf-" + ( i-threads ));
+			}
+			workers[i].start();
+		}
+		Set<String> seen = new HashSet<String>();
+		try {
+			for ( File f : roots ) {
+				walk( f, queue, seen );
+			}
+			for ( int i=0; i<threads; i++ ) {
+				queue.put( END_OF_QUEUE );
+			}
+			// The PDF workers stop once no more files can be passed on
+			for ( int i=0; i<threads; i++ ) {
+				workers[i].join();
+			}
+			for ( int i=0; i<pdfThreads; i++ ) {
+				pdfQueue.put( END_OF_QUEUE );
+			}
+			for ( int i=threads; i<workers.length; i++ ) {
+				workers[i].join();
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		if ( incremental != null ) {
+			Manifest manifest = incremental.getManifest();
+			for ( File f : roots ) {
+				for ( String path : manifest.pathsUnder( f )) {
+					if ( !seen.contains( path )) {
+						System.err.println( "Removing " + path );
+						int docID = manifest.remove( path ).docID;
+						incremental.delete( docID );
+						Index.forwardIndex.remove( docID );
+						changes.incrementAndGet();
+					}
+				}
+			}
+		}
+		if ( changes.get() > 0 ) {
+			// The idfs change as documents are added, but the norms of
+			// the other documents are computed again only once the
+			// index has grown by a good part since the last time
+			addedSinceNorms += added.cardinality();
+			if ( addedSinceNorms > Index.docTable.count() / 2 || !computeNorms( added )) {
+				computeNorms();
+			}
+			invalidateCache();
+		}
+		if ( incremental != null ) {
+			incremental.getManifest().setNextDocID( lastDocID );
+			try {
+				incremental.commit();
+			}
+			catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+
+	/**
+	 *  Keeps indexing the changes to the given directories, in a
+	 *  background thread, as they are reported by the file system.
+	 *  Changes are collected for a short while and then processed
+	 *  together. Only an incremental index can be watched.
+	 */
+	public void watch( final List<File> dirs ) throws IOException {
+		if ( incremental == null ) {
+			System.err.println( "Only a MappedSegmentIndex can be updated incrementally" );
+			return;
+		}
+		final WatchService watcher = FileSystems.getDefault().newWatchService();
+		final HashMap<WatchKey,Path> keys = new HashMap<WatchKey,Path>();
+		for ( File dir : dirs ) {
+			register( watcher, keys, dir.toPath() );
+		}
+		Thread thread = new Thread( new Runnable() {
+			public void run() {
+				try {
+					while ( true ) {
+						WatchKey key = watcher.take();
+						Thread.sleep( WATCH_DELAY );
+						Set<File> changed = new HashSet<File>();
+						do {
+							Path dir = keys.get( key );
+							for ( WatchEvent<?> event : key.pollEvents() ) {
+								if ( event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null ) {
+									// Events were lost; look at everything
+									changed.addAll( dirs );
+									continue;
+								}
+								Path child = dir.resolve( (Path)event.context() );
+								if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory( child )) {
+									register( watcher, keys, child );
+								}
+								changed.add( child.toFile() );
+							}
+							if ( !key.reset() ) {
+								keys.remove( key );
+							}
+						} while (( key = watcher.poll() ) != null );
+						processFiles( changed );
+					}
+				}
+				catch ( InterruptedException e ) {
+				}
+				catch ( IOException e ) {
+					e.printStackTrace();
+				}
+			}
+		}, "indexer-watch" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+
+	/**
+	 *  Registers a directory and all directories below it with the
+	 *  watch service.
+	 */
+	private static void register( WatchService watcher, HashMap<WatchKey,Path> keys, Path dir ) throws IOException {
+		keys.put( dir.register( watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE ), dir );
+		File[] fs = dir.toFile().listFiles();
+		if ( fs != null ) {
+			for ( File f : fs ) {
+				if ( f.isDirectory() ) {
+					register( watcher, keys, f.toPath() );
+				}
+			}
+		}
+	}
+
+
+	/**
+	 *  Computes the length of every document's tf-idf vector, in one
+	 *  pass over all postings, and stores it in the document table.
+	 */
+	public void computeNorms() {
+		int n = Index.docTable.count();
+		double[] squares = new double[Index.docTable.size()];
+		try {
+			TermStream terms = index.getTerms();
+			while ( terms.next() ) {
+				PostingsList list = terms.postings();
+				double idf = Math.log( (double)Math.max( n, list.size() ) / list.size() );
+				for ( int i=0; i<list.size(); i++ ) {
+					int docID = list.getDocID( i );
+					if ( docID >= 0 && docID < squares.length ) {
+						double w = list.getFrequency( i ) * idf;
+						squares[docID] += w*w;
+					}
+				}
+			}
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+			return;
+		}
+		float[] norms = new float[squares.length];
+		for ( int d=0; d<squares.length; d++ ) {
+			norms[d] = (float)Math.sqrt( squares[d] );
+		}
+		Index.docTable.setNorms( norms );
+		addedSinceNorms = 0;
+		CombinedRanking.invalidate();
+		// Cached lists carry score bounds computed with the old norms
+		PostingsCache.getShared().clear();
+	}
+
+
+	/**
+	 *  Computes the norms of the documents in @code{docs} only, from
+	 *  their term vectors in the forward index and the document
+	 *  frequencies of their terms. The norms of other documents are
+	 *  left as they are.
+	 *
+	 *  @return false if a document has no term vector, so that the
+	 *  norms of all documents must be computed.
+	 */
+	private boolean computeNorms( BitSet docs ) {
+		int n = Index.docTable.count();
+		HashMap<Integer,Double> idfs = new HashMap<Integer,Double>();
+		for ( int d=docs.nextSetBit( 0 ); d>=0; d=docs.nextSetBit( d+1 )) {
+			if ( !Index.docTable.contains( d )) {
+				// Replaced again in the same run
+				continue;
+			}
+			ForwardIndex.Vector v = Index.forwardIndex.get( d );
+			if ( v == null ) {
+				return false;
+			}
+			double square = 0;
+			for ( int i=0; i<v.size; i++ ) {
+				Double idf = idfs.get( v.termIDs[i] );
+				if ( idf == null ) {
+					int df = index.documentFrequency( Index.forwardIndex.term( v.termIDs[i] ));
+					idf = df == 0 ? 0 : Math.log( (double)Math.max( n, df ) / df );
+					idfs.put( v.termIDs[i], idf );
+				}
+				double w = v.frequencies[i] * idf;
+				square += w*w;
+			}
+			Index.docTable.setNorm( d, (float)Math.sqrt( square ));
+		}
+		CombinedRanking.invalidate();
+		return true;
+	}
+
+
+	/**
+	 *  Puts @code{f}, or all files below it if it is a directory, on
+	 *  the queue. The paths of all files are added to @code{seen}, but
+	 *  files known to be unchanged are not queued. The files are not
+	 *  opened here, but by the workers.
+	 */
+	private void walk( File f, BlockingQueue<Source> queue, Set<String> seen ) throws InterruptedException {
+		// do not try to index fs that cannot be read
+		if ( f.canRead() ) {
+			if ( f.isDirectory() ) {
+				String[] fs = f.list();
+				// an IO error could occur
+				if ( fs != null ) {
+					// Files of a directory get consecutive docIDs in
+					// order of name, which keeps similar documents
+					// together and the gaps in the postings small
+					Arrays.sort( fs );
+					for ( int i=0; i<fs.length; i++ ) {
+						walk( new File( f, fs[i] ), queue, seen );
+					}
+				}
+			} else {
+				seen.add( f.getPath() );
+				if ( incremental != null ) {
+					Manifest.Entry entry = incremental.getManifest().get( f.getPath() );
+					if ( entry != null && entry.matches( f )) {
+						return;
+					}
+				}
+				queue.put( new Source( f ));
+			}
+		}
+	}
+
+
+	/**
+	 *  A file on its way through the workers. It is opened once, by the
+	 *  worker that takes it from the walker, and a PDF file is passed on
+	 *  to the PDF workers still open, with what is known about it.
+	 */
+	private static class Source {
+
+		final File file;
+
+		/** The contents, from the start, once the file is open. */
+		InputStream in;
+		boolean pdf;
+
+		/** For an incremental index: the file as read, and its old entry. */
+		long modified;
+		long size;
+		long checksum;
+		Manifest.Entry old;
+
+		Source( File file ) {
+			this.file = file;
+		}
+	}
+
+
+	/**
+	 *  Indexes files from the queue into a partial index of its own,
+	 *  which is merged into the main index at the end.
+	 */
+	private class Worker implements Runnable {
+
+		BlockingQueue<Source> queue;
+
+		/** Where PDF files are passed on, or null for a PDF worker. */
+		BlockingQueue<Source> pdfQueue;
+
+		HashedIndex partial = new HashedIndex();
+
+		/** Manifest entries of the files in the partial index. */
+		HashMap<String,Manifest.Entry> entries = new HashMap<String,Manifest.Entry>();
+
+		/** Documents replaced by the files in the partial index. */
+		ArrayList<Integer> replaced = new ArrayList<Integer>();
+
+		Worker( BlockingQueue<Source> queue, BlockingQueue<Source> pdfQueue ) {
+			this.queue = queue;
+			this.pdfQueue = pdfQueue;
+		}
+
+		public void run() {
+			try {
+				while ( true ) {
+					Source s = queue.take();
+					if ( s == END_OF_QUEUE ) {
+						break;
+					}
+					try {
+						process( s );
+					}
+					catch ( RuntimeException e ) {
+						e.printStackTrace();
+					}
+					if ( partial.tokenCount() >= PARTIAL_INDEX_TOKENS ) {
+						flush();
+					}
+				}
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				flush();
+			}
+		}
+
+		/**
+		 *  Opens a file, if it is not open yet, and indexes it, unless
+		 *  it is a PDF file that can be passed on to the PDF workers.
+		 *  For an incremental index, a file whose contents are unchanged
+		 *  (only its time stamp differs) is not indexed again.
+		 */
+		void process( Source s ) {
+			try {
+				if ( s.in == null && !open( s )) {
+					return;
+				}
+			}
+			catch ( IOException e ) {
+				e.printStackTrace();
+				return;
+			}
+			if ( s.pdf && pdfQueue != null && pdfQueue.offer( s )) {
+				return;
+			}
+			int docID = indexFile( s, partial );
+			if ( incremental != null ) {
+				entries.put( s.file.getPath(), new Manifest.Entry( s.modified, s.size, s.checksum, docID ));
+				if ( s.old != null ) {
+					replaced.add( s.old.docID );
+				}
+			}
+		}
+
+		/**
+		 *  Merges the partial index into the main index and starts
+		 *  a new one. The documents are registered first, so that a
+		 *  search finding the new postings can also find the names.
+		 *  Documents of changed files are deleted only once their new
+		 *  versions are in the index.
+		 */
+		void flush() {
+			if ( partial.getDocumentNames().isEmpty() ) {
+				return;
+			}
+			Index.docTable.addAll( partial );
+			Index.forwardIndex.addAll( partial );
+			synchronized ( added ) {
+				for ( String docID : partial.getDocumentNames().keySet() ) {
+					added.set( Integer.parseInt( docID ));
+				}
+			}
+			insertAll( partial );
+			partial = new HashedIndex();
+			if ( incremental != null ) {
+				for ( String path : entries.keySet() ) {
+					incremental.getManifest().put( path, entries.get( path ));
+				}
+				for ( int docID : replaced ) {
+					incremental.delete( docID );
+					Index.forwardIndex.remove( docID );
+				}
+				entries.clear();
+				replaced.clear();
+			}
+			invalidateCache();
+		}
+	}
+
+
+	/**
+	 *  Adds the postings of a partial index to the index. The index
+	 *  types of this package take the partial index as a whole, any
+	 *  other index gets the postings one at a time.
+	 */
+	private void insertAll( HashedIndex partial ) {
+		if ( index instanceof HashedIndex ) {
+			((HashedIndex)index).insertAll( partial );
+		}
+		else if ( index instanceof MegaIndex ) {
+			((MegaIndex)index).insertAll( partial );
+		}
+		else if ( index instanceof MappedSegmentIndex ) {
+			((MappedSegmentIndex)index).insertAll( partial );
+		}
+		else {
+			TermDictionary terms = partial.getDictionary();
+			for ( int i=0; i<terms.size(); i++ ) {
+				String term = terms.term( i );
+				PostingsList list = partial.getPostings( i );
+				for ( int j=0; list != null && j<list.size(); j++ ) {
+					for ( int k=0; k<list.getFrequency( j ); k++ ) {
+						index.insert( term, list.getDocID( j ), list.getOffset( j, k ));
+					}
+				}
+			}
+		}
+	}
+
+
+	private void invalidateCache() {
+		if ( cache != null ) {
+			cache.invalidate();
+		}
+	}
+
+
+	/**
+	 *  Tokenizes one open file and indexes it into @code{target}, where
+	 *  the name and length of the document are recorded as well.
+	 *
+	 *  @return the docID of the document.
+	 */
+	private int indexFile( Source s, HashedIndex target ) {
+		File f = s.file;
+		changes.incrementAndGet();
+		System.err.println( "Indexing " + f.getPath() );
+		// First register the document and get a docID
+		int docID = generateDocID();
+		int offset = 0;
+		try {
+			Reader reader = open( s.in, f, s.pdf );
+			try {
+				SimpleTokenizer tok = new SimpleTokenizer( reader );
+				while ( tok.advance() ) {
+					target.insert( tok.termBuffer(), 0, tok.termLength(), docID, offset++ );
+				}
+			}
+			finally {
+				// Releases the parsed document of a PDF file
+				reader.close();
+			}
+			Index.docTable.setLength( docID, offset );
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		target.addDocument( docID, f.getPath(), offset );
+		return docID;
+	}
+
+
+	/**
+	 *  Opens the file of @code{s}, and tells whether it is a PDF file
+	 *  by its first bytes. This is the only time the file is opened.
+	 *  For an incremental index the contents are read once for the
+	 *  checksum, which also gives the first bytes, and only if they
+	 *  have changed are they read again, from the same open file.
+	 *
+	 *  @return false if the file is unchanged, and then it is closed.
+	 */
+	private boolean open( Source s ) throws IOException {
+		FileInputStream in = new FileInputStream( s.file );
+		try {
+			if ( incremental == null ) {
+				s.in = new BufferedInputStream( in );
+				s.pdf = startsLikePDF( s.in );
+				return true;
+			}
+			Manifest manifest = incremental.getManifest();
+			s.modified = s.file.lastModified();
+			s.size = s.file.length();
+			byte[] head = new byte[4];
+			s.checksum = Manifest.checksum( in, head );
+			s.old = manifest.get( s.file.getPath() );
+			if ( s.old != null && s.old.checksum == s.checksum && s.old.size == s.size ) {
+				manifest.put( s.file.getPath(), new Manifest.Entry( s.modified, s.size, s.checksum, s.old.docID ));
+				in.close();
+				return false;
+			}
+			in.getChannel().position( 0 );
+			s.in = new BufferedInputStream( in );
+			s.pdf = isPDFHeader( head );
+			return true;
+		}
+		catch ( IOException e ) {
+			in.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 *  Opens a file for tokenizing: a PDF file as its extracted text,
+	 *  any other file as text.
+	 */
+	private Reader open( File f ) throws IOException {
+		InputStream in = new BufferedInputStream( new FileInputStream( f ));
+		boolean pdf;
+		try {
+			pdf = startsLikePDF( in );
+		}
+		catch ( IOException e ) {
+			in.close();
+			throw e;
+		}
+		return open( in, f, pdf );
+	}
+
+
+	/**
+	 *  Reads an open file, from its start, for tokenizing.
+	 */
+	private Reader open( InputStream in, File f, boolean pdf ) throws IOException {
+		if ( pdf ) {
+			// We assume this is a PDF file, and extract its text
+			// a few pages at a time as it is tokenized
+			try {
+				return new PDFTextReader( in, f.getPath() );
+			}
+			catch ( IOException e ) {
+				// Perhaps it wasn't a PDF file after all
+				return new FileReader( f );
+			}
+		}
+		// We hope this is ordinary text
+		return new InputStreamReader( in );
+	}
+
+
+	/**
+	 *  Looks at the first four bytes of a stream, which must support
+	 *  mark(), and returns @code{true} if they are "%PDF". The stream
+	 *  is reset to where it was, to be read again from there.
+	 */
+	private static boolean startsLikePDF( InputStream in ) throws IOException {
+		byte[] head = new byte[4];
+		in.mark( head.length );
+		int n = 0;
+		while ( n < head.length ) {
+			int k = in.read( head, n, head.length-n );
+			if ( k < 0 ) {
+				break;
+			}
+			n += k;
+		}
+		in.reset();
+		return isPDFHeader( head );
+	}
+
+
+	/**
+	 *  @code{true} if the first bytes of a file, zero where the file
+	 *  is shorter, are "%PDF".
+	 */
+	private static boolean isPDFHeader( byte[] head ) {
+		return head[0] == '%' && head[1] == 'P' && head[2] == 'D' && head[3] == 'F';
+	}
+
+
+	/**
+	 *  Returns the term vector of a document. Documents indexed in this
+	 *  run have their vectors in the forward index; other documents
+	 *  (of an index read from disk) are read again, once, and their
+	 *  vectors added to the forward index.
+	 *
+	 *  @return the vector, or null if the document cannot be read.
+	 */
+	public ForwardIndex.Vector termVector( int docID ) {
+		ForwardIndex.Vector v = Index.forwardIndex.get( docID );
+		if ( v != null ) {
+			return v;
+		}
+		String name = Index.docTable.getName( docID );
+		if ( name == null ) {
+			return null;
+		}
+		HashMap<String,Integer> counts = new HashMap<String,Integer>();
+		try {
+			Reader reader = open( new File( name ));
+			try {
+				SimpleTokenizer tok = new SimpleTokenizer( reader );
+				while ( tok.advance() ) {
+					String term = new String( tok.termBuffer(), 0, tok.termLength() );
+					Integer c = counts.get( term );
+					counts.put( term, c == null ? 1 : c+1 );
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+			return null;
+		}
+		String[] terms = new String[counts.size()];
+		int[] frequencies = new int[counts.size()];
+		int n = 0;
+		for ( String term : counts.keySet() ) {
+			terms[n] = term;
+			frequencies[n++] = counts.get( term );
+		}
+		Index.forwardIndex.put( docID, terms, frequencies, n );
+		return Index.forwardIndex.get( docID );
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  Indexes one token.
+	 */
+	public void insertIntoIndex( int docID, String token, int offset ) {
+		index.insert( token, docID, offset );
+	}
+}
+
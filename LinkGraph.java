@@ -0,0 +1,351 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ *   A directed graph of links between documents, stored in compressed
+ *   sparse row form: the nodes are numbered 0..n-1, and the nodes that
+ *   link to node v are inLinks[inStart[v]] .. inLinks[inStart[v+1]-1].
+ *   The graph thus takes two ints per link and two per node, and can
+ *   be traversed without following references.
+ *
+ *   The links are read from a text file with one line per document,
+ *
+ *      from;to1,to2,to3,
+ *
+ *   or one line per link, "from to", separated by white space. Lines
+ *   starting with # are ignored. Nodes are named by the strings in the
+ *   file, which cannot contain white space, commas or semicolons. A
+ *   link that occurs more than once is counted once.
+ */
+public class LinkGraph {
+
+    /** Names of the nodes. */
+    String[] names;
+
+    /** Where the in-links of each node start in inLinks, and the end. */
+    int[] inStart;
+
+    /** Sources of the links, grouped by target. */
+    int[] inLinks;
+
+    /** Number of links from each node. */
+    int[] outDegree;
+
+
+    private LinkGraph() {
+    }
+
+
+    /**
+     *  Reads a graph from a links file. The file is parsed as bytes, and
+     *  a name is only decoded the first time it is seen, since most
+     *  names occur many times.
+     */
+    public static LinkGraph read( File file ) throws IOException {
+	NameTable names = new NameTable();
+	IntArray from = new IntArray(), to = new IntArray();
+	InputStream in = new FileInputStream( file );
+	try {
+	    byte[] buf = new byte[1 << 16];
+	    byte[] token = new byte[256];
+	    int length = 0;          // of the current token
+	    int field = 0;           // number of the token on the line
+	    int source = -1;
+	    boolean list = false;    // whether the line is "from;to1,to2,..."
+	    boolean comment = false;
+	    int n;
+	    while (( n = in.read( buf )) > 0 ) {
+		for ( int i=0; i<n; i++ ) {
+		    byte b = buf[i];
+		    if ( comment ) {
+			comment = b != '\n';
+			continue;
+		    }
+		    if ( b != ';' && b != ',' && b != ' ' && b != '\t' && b != '\r' && b != '\n' ) {
+			if ( b == '#' && field == 0 && length == 0 ) {
+			    comment = true;
+			    continue;
+			}
+			if ( length == token.length ) {
+			    token = Arrays.copyOf( token, 2*length );
+			}
+			token[length++] = b;
+			continue;
+		    }
+		    if ( length > 0 ) {
+			int id = names.id( token, length );
+			if ( field == 0 ) {
+			    source = id;
+			}
+			else if ( list || field == 1 ) {
+			    from.add( source );
+			    to.add( id );
+			}
+			field++;
+			length = 0;
+		    }
+		    if ( b == ';' && field == 1 ) {
+			list = true;
+		    }
+		    else if ( b == '\n' ) {
+			field = 0;
+			list = false;
+		    }
+		}
+	    }
+	    if ( length > 0 ) {
+		int id = names.id( token, length );
+		if ( field > 0 && ( list || field == 1 )) {
+		    from.add( source );
+		    to.add( id );
+		}
+	    }
+	}
+	finally {
+	    in.close();
+	}
+	return build( names.toArray(), from, to );
+    }
+
+
+    /**
+     *  Builds a graph of the given nodes from its links, given as pairs
+     *  from[i] -> to[i].
+     */
+    public static LinkGraph build( String[] names, int[] from, int[] to, int links ) {
+	return build( names, new IntArray( from, links ), new IntArray( to, links ));
+    }
+
+
+    private static LinkGraph build( String[] names, IntArray from, IntArray to ) {
+	int n = names.length;
+	LinkGraph g = new LinkGraph();
+	g.names = names;
+	// Counting sort of the links by target
+	g.inStart = new int[n+1];
+	for ( int i=0; i<to.size; i++ ) {
+	    g.inStart[to.a[i]+1]++;
+	}
+	for ( int v=0; v<n; v++ ) {
+	    g.inStart[v+1] += g.inStart[v];
+	}
+	int[] fill = Arrays.copyOf( g.inStart, n );
+	int[] inLinks = new int[to.size];
+	for ( int i=0; i<to.size; i++ ) {
+	    inLinks[fill[to.a[i]]++] = from.a[i];
+	}
+	// Remove repeated links, and count the links from each node
+	g.outDegree = new int[n];
+	int p = 0;
+	for ( int v=0; v<n; v++ ) {
+	    int start = g.inStart[v], end = g.inStart[v+1];
+	    Arrays.sort( inLinks, start, end );
+	    g.inStart[v] = p;
+	    for ( int i=start; i<end; i++ ) {
+		if ( i == start || inLinks[i] != inLinks[i-1] ) {
+		    inLinks[p++] = inLinks[i];
+		    g.outDegree[inLinks[i]]++;
+		}
+	    }
+	}
+	g.inStart[n] = p;
+	g.inLinks = p == inLinks.length ? inLinks : Arrays.copyOf( inLinks, p );
+	return g;
+    }
+
+
+    /**  Number of nodes */
+    public int size() {
+	return names.length;
+    }
+
+    /**  Number of links */
+    public int links() {
+	return inLinks.length;
+    }
+
+    /**  Name of a node */
+    public String getName( int node ) {
+	return names[node];
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**  A growing array of ints */
+    private static class IntArray {
+	int[] a;
+	int size;
+
+	IntArray() {
+	    a = new int[1024];
+	}
+
+	IntArray( int[] a, int size ) {
+	    this.a = a;
+	    this.size = size;
+	}
+
+	void add( int x ) {
+	    if ( size == a.length ) {
+		a = Arrays.copyOf( a, 2*size );
+	    }
+	    a[size++] = x;
+	}
+    }
+
+
+    /**
+     *  Numbers names in the order they are first seen. The names are
+     *  kept as bytes in an open addressing hash table, so looking up a
+     *  name that is already known creates no objects. Each slot also
+     *  holds the first bytes and the length of its name packed into a
+     *  long, which is the whole name for names of up to 7 bytes, such as
+     *  numbers, so most lookups never touch the names themselves.
+     */
+    private static class NameTable {
+	byte[][] names = new byte[1024][];
+	int size = 0;
+	/**
+	 *  The hash table: the packed name of each slot followed by its
+	 *  id + 1, or 0 if the slot is empty, so a probe reads one cache
+	 *  line.
+	 */
+	long[] table = new long[2*2048];
+	/** 32 - log2( number of slots ), to take the top bits of a hash. */
+	int shift = 21;
+	/**
+	 *  Ids + 1 of names that are decimal numbers, by number. Links
+	 *  files usually name documents by number, and this table is
+	 *  several times smaller than the hash table.
+	 */
+	int[] numbers = new int[1024];
+
+	/**
+	 *  Numbers from this many times the number of names on are looked
+	 *  up in the hash table, so that a few large numbers among small
+	 *  ones don't make @code{numbers} huge.
+	 */
+	static final int MAX_SPREAD = 4;
+
+	int id( byte[] token, int length ) {
+	    int number = number( token, length );
+	    if ( number >= 0 && number < Math.max( numbers.length, MAX_SPREAD*( size+1 ))) {
+		if ( number >= numbers.length ) {
+		    numbers = Arrays.copyOf( numbers, Math.max( number+1, 2*numbers.length ));
+		}
+		if ( numbers[number] == 0 ) {
+		    numbers[number] = lookup( token, length ) + 1;
+		}
+		return numbers[number] - 1;
+	    }
+	    return lookup( token, length );
+	}
+
+	/**
+	 *  The value of a name that is a number below 10^8 without leading
+	 *  zeros, or -1.
+	 */
+	private static int number( byte[] token, int length ) {
+	    if ( length > 8 || ( token[0] == '0' && length > 1 )) {
+		return -1;
+	    }
+	    int value = 0;
+	    for ( int i=0; i<length; i++ ) {
+		int d = token[i] - '0';
+		if ( d < 0 || d > 9 ) {
+		    return -1;
+		}
+		value = 10*value + d;
+	    }
+	    return value;
+	}
+
+	private int lookup( byte[] token, int length ) {
+	    long key = (long)length << 56;
+	    for ( int i=0; i<length && i<7; i++ ) {
+		key |= ( token[i] & 0xffL ) << ( 8*i );
+	    }
+	    int h = hash( key, token, length );
+	    int mask = table.length/2 - 1;
+	    // Fibonacci hashing spreads the similar hashes of similar names
+	    int slot = ( h * 0x9E3779B9 ) >>> shift;
+	    long id;
+	    while (( id = table[2*slot+1] ) != 0 ) {
+		if ( table[2*slot] == key && ( length <= 7 || equals( names[(int)id-1], token, length ))) {
+		    return (int)id - 1;
+		}
+		slot = ( slot + 1 ) & mask;
+	    }
+	    if ( size == names.length ) {
+		names = Arrays.copyOf( names, 2*size );
+	    }
+	    names[size] = Arrays.copyOf( token, length );
+	    table[2*slot] = key;
+	    table[2*slot+1] = size + 1;
+	    if ( 4*( size+1 ) > table.length ) {
+		rehash();
+	    }
+	    return size++;
+	}
+
+	private static int hash( long key, byte[] token, int length ) {
+	    int h = (int)(( key * 0x9E3779B97F4A7C15L ) >>> 32 );
+	    for ( int i=7; i<length; i++ ) {
+		h = 31*h + token[i];
+	    }
+	    return h;
+	}
+
+	private static boolean equals( byte[] name, byte[] token, int length ) {
+	    if ( name.length != length ) {
+		return false;
+	    }
+	    for ( int i=7; i<length; i++ ) {
+		if ( name[i] != token[i] ) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	private void rehash() {
+	    long[] old = table;
+	    table = new long[2*old.length];
+	    shift--;
+	    int mask = table.length/2 - 1;
+	    for ( int i=0; i<old.length; i+=2 ) {
+		if ( old[i+1] == 0 ) {
+		    continue;
+		}
+		byte[] name = names[(int)old[i+1]-1];
+		int slot = ( hash( old[i], name, name.length ) * 0x9E3779B9 ) >>> shift;
+		while ( table[2*slot+1] != 0 ) {
+		    slot = ( slot + 1 ) & mask;
+		}
+		table[2*slot] = old[i];
+		table[2*slot+1] = old[i+1];
+	    }
+	}
+
+	String[] toArray() {
+	    String[] a = new String[size];
+	    for ( int i=0; i<size; i++ ) {
+		a[i] = new String( names[i], StandardCharsets.UTF_8 );
+	    }
+	    return a;
+	}
+    }
+}
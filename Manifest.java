@@ -0,0 +1,187 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ *   The files an index was built from: for every file, its modification
+ *   time, size and CRC-32 checksum when it was indexed, and its docID.
+ *   The Indexer uses it to index only new and changed files, and to
+ *   find the documents of files that have been removed.
+ *
+ *   Stored as a text file with one tab-separated line per file, after a
+ *   first line with the next docID to be used.
+ */
+public class Manifest {
+
+    /**  What is known about one indexed file */
+    public static class Entry {
+	public final long modified;
+	public final long size;
+	public final long checksum;
+	public final int docID;
+
+	public Entry( long modified, long size, long checksum, int docID ) {
+	    this.modified = modified;
+	    this.size = size;
+	    this.checksum = checksum;
+	    this.docID = docID;
+	}
+
+	/**  @code{true} if the file looks unchanged, judging by time stamp and size */
+	public boolean matches( File f ) {
+	    return modified == f.lastModified() && size == f.length();
+	}
+    }
+
+
+    private HashMap<String,Entry> entries = new HashMap<String,Entry>();
+
+    /** The next docID to be used; docIDs of removed files are not reused. */
+    private int nextDocID = 0;
+
+
+    /**
+     *  Reads a manifest file. A missing file gives an empty manifest.
+     */
+    public static Manifest load( File file ) throws IOException {
+	Manifest m = new Manifest();
+	if ( !file.exists() ) {
+	    return m;
+	}
+	BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ));
+	try {
+	    String line = in.readLine();
+	    if ( line != null ) {
+		m.nextDocID = Integer.parseInt( line.trim() );
+	    }
+	    while (( line = in.readLine() ) != null ) {
+		// The path comes first and may itself contain tabs
+		String[] f = new String[4];
+		int end = line.length();
+		for ( int k=3; k>=0; k-- ) {
+		    int tab = line.lastIndexOf( '\t', end-1 );
+		    f[k] = line.substring( tab+1, end );
+		    end = tab;
+		}
+		m.entries.put( line.substring( 0, end ), new Entry( Long.parseLong( f[0] ), Long.parseLong( f[1] ), Long.parseLong( f[2] ), Integer.parseInt( f[3] )));
+	    }
+	}
+	finally {
+	    in.close();
+	}
+	return m;
+    }
+
+
+    /**
+     *  Writes the manifest to a temporary file, which then replaces
+     *  @code{file}.
+     */
+    public synchronized void save( File file ) throws IOException {
+	File tmp = new File( file.getPath() + ".tmp" );
+	BufferedWriter out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" ));
+	try {
+	    out.write( nextDocID + "\n" );
+	    for ( String path : entries.keySet() ) {
+		Entry e = entries.get( path );
+		out.write( path + "\t" + e.modified + "\t" + e.size + "\t" + e.checksum + "\t" + e.docID + "\n" );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	if ( !tmp.renameTo( file )) {
+	    file.delete();
+	    if ( !tmp.renameTo( file )) {
+		throw new IOException( "Couldn't rename " + tmp + " to " + file );
+	    }
+	}
+    }
+
+
+    public synchronized Entry get( String path ) {
+	return entries.get( path );
+    }
+
+    public synchronized void put( String path, Entry entry ) {
+	entries.put( path, entry );
+    }
+
+    public synchronized Entry remove( String path ) {
+	return entries.remove( path );
+    }
+
+    /**  The docIDs of all files in the manifest */
+    public synchronized BitSet documents() {
+	BitSet docs = new BitSet();
+	for ( Entry e : entries.values() ) {
+	    if ( e.docID >= 0 ) {
+		docs.set( e.docID );
+	    }
+	}
+	return docs;
+    }
+
+    public synchronized int getNextDocID() {
+	return nextDocID;
+    }
+
+    public synchronized void setNextDocID( int docID ) {
+	nextDocID = Math.max( nextDocID, docID );
+    }
+
+
+    /**
+     *  Returns the paths of all files that are @code{root} or below it.
+     */
+    public synchronized List<String> pathsUnder( File root ) {
+	String dir = root.getPath() + File.separator;
+	ArrayList<String> result = new ArrayList<String>();
+	for ( String path : entries.keySet() ) {
+	    if ( path.equals( root.getPath() ) || path.startsWith( dir )) {
+		result.add( path );
+	    }
+	}
+	return result;
+    }
+
+
+    /**
+     *  Computes the CRC-32 checksum of the rest of a stream, which is
+     *  left at its end. The first bytes read are copied to @code{head},
+     *  so the caller can tell the type of a file without reading it
+     *  again.
+     */
+    public static long checksum( InputStream in, byte[] head ) throws IOException {
+	CRC32 crc = new CRC32();
+	byte[] buf = new byte[1 << 16];
+	long read = 0;
+	int n;
+	while (( n = in.read( buf )) > 0 ) {
+	    if ( read < head.length ) {
+		System.arraycopy( buf, 0, head, (int)read, (int)Math.min( n, head.length-read ));
+	    }
+	    crc.update( buf, 0, n );
+	    read += n;
+	}
+	return crc.getValue();
+    }
+}
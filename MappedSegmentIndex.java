@@ -0,0 +1,680 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *   An index stored as immutable, memory-mapped segment files.
+ *
+ *   Opening an existing index only maps the files; nothing is
+ *   deserialized until a term is looked up. The names, lengths and norms
+ *   of the documents are saved in a DocumentTable file by commit(), and
+ *   mapped as well. The index can be searched
+ *   while it is being built: each partial index handed over by an
+ *   indexing thread is written to a segment of its own, which is then
+ *   published by atomically replacing the current snapshot (the array
+ *   of segments) with a new one. A search reads the snapshot once, so
+ *   it sees a consistent point-in-time view and never waits for
+ *   indexing. cleanup() merges all segments into one file.
+ *
+ *   The index can be updated incrementally. It keeps a Manifest of the
+ *   files it was built from, and documents can be deleted: their docIDs
+ *   are marked in a tombstone bit set, part of the snapshot, and are
+ *   left out of search results until a merge removes them for good.
+ *
+ *   A MergeScheduler, if started, merges the partial segments into
+ *   larger ones in the background.
+ */
+public class MappedSegmentIndex implements Index {
+
+    /** The directory where to place index files on disk. */
+    private static final String path = "./index";
+
+    /** The main segment file of this index. */
+    private File file;
+
+    /** The published segments. Replaced, never modified. */
+    private volatile Snapshot snapshot = new Snapshot( new Segment[0], new BitSet() );
+
+    /** The files the index was built from. */
+    private Manifest manifest = new Manifest();
+
+    /** Number for the next partial segment file. */
+    private AtomicInteger segmentNumber = new AtomicInteger();
+
+    /**
+     *  Tokens inserted one at a time. They are not searchable until
+     *  cleanup() writes them to a segment.
+     */
+    private HashedIndex buffer = new HashedIndex();
+
+    /** Merges segments in the background, if started. */
+    private MergeScheduler merger;
+
+    /** Held while segments are merged, so that merges don't overlap. */
+    private final Object mergeLock = new Object();
+
+
+    /**
+     *  Opens the segments named in @code{indexfiles}, together with
+     *  any partial segments of the first one that were not merged by
+     *  cleanup(). Creates a new index if the list is empty.
+     */
+    public MappedSegmentIndex( LinkedList<String> indexfiles ) {
+	new File( path ).mkdirs();
+	if ( indexfiles.size() == 0 ) {
+	    file = new File( path, generateFilename() );
+	    openForwardIndex();
+	    return;
+	}
+	BitSet deleted = new BitSet();
+	file = new File( path, indexfiles.get(0) );
+	try {
+	    manifest = Manifest.load( manifestFile() );
+	    if ( deletionsFile().exists() ) {
+		ObjectInputStream in = new ObjectInputStream( new FileInputStream( deletionsFile() ));
+		try {
+		    deleted = (BitSet)in.readObject();
+		}
+		finally {
+		    in.close();
+		}
+	    }
+	}
+	catch ( Exception e ) {
+	    System.err.println( "Couldn't read the manifest of " + file + ": " + e.getMessage() );
+	}
+	ArrayList<File> files = new ArrayList<File>();
+	for ( String name : indexfiles ) {
+	    files.add( new File( path, name ));
+	}
+	String prefix = file.getName() + ".";
+	String[] names = new File( path ).list();
+	Arrays.sort( names );
+	for ( String name : names ) {
+	    if ( name.startsWith( prefix ) && name.substring( prefix.length() ).matches( "[0-9]+" )) {
+		files.add( new File( path, name ));
+		int n = Integer.parseInt( name.substring( prefix.length() ));
+		segmentNumber.set( Math.max( segmentNumber.get(), n ));
+	    }
+	}
+	// Documents may be loaded in any order, up to the next docID
+	docTable.reserve( manifest.getNextDocID() );
+	// The documents of the main segment are in the document table
+	// file, unless the segment was written after the table
+	boolean mapped = false;
+	try {
+	    mapped = docTable.open( documentsFile(), stamp() );
+	}
+	catch ( IOException e ) {
+	    System.err.println( "Couldn't read the documents of " + file + ": " + e.getMessage() );
+	}
+	ArrayList<Segment> segments = new ArrayList<Segment>();
+	for ( File f : files ) {
+	    try {
+		Segment segment = Segment.open( f );
+		if ( !mapped || !f.equals( file )) {
+		    segment.loadDocuments( docTable );
+		}
+		segments.add( segment );
+	    }
+	    catch ( IOException e ) {
+		System.err.println( "Couldn't open segment " + f + ": " + e.getMessage() );
+	    }
+	}
+	// Partial segments are published before the manifest is saved.
+	// Documents whose manifest entry was lost (the program stopped in
+	// between) will be indexed again, so the old copies are dropped.
+	BitSet known = manifest.documents();
+	for ( Segment segment : segments ) {
+	    if ( !segment.getFile().equals( file )) {
+		for ( int docID : segment.documentIDs() ) {
+		    if ( docID >= 0 && !known.get( docID )) {
+			deleted.set( docID );
+		    }
+		}
+	    }
+	}
+	for ( int docID=deleted.nextSetBit( 0 ); docID>=0; docID=deleted.nextSetBit( docID+1 )) {
+	    docTable.remove( docID );
+	}
+	snapshot = new Snapshot( segments.toArray( new Segment[segments.size()] ), deleted );
+	openForwardIndex();
+	for ( int docID=deleted.nextSetBit( 0 ); docID>=0; docID=deleted.nextSetBit( docID+1 )) {
+	    forwardIndex.remove( docID );
+	}
+    }
+
+
+    /**
+     *  Keeps the term vectors of the documents in the file
+     *  <main file>.fwd (see ForwardIndex).
+     */
+    private void openForwardIndex() {
+	try {
+	    forwardIndex.open( new File( path, file.getName() + ".fwd" ));
+	}
+	catch ( IOException e ) {
+	    System.err.println( "Couldn't read the term vectors of " + file + ": " + e.getMessage() );
+	}
+    }
+
+
+    /**
+     *  Generates unique names for segment files. The file is created,
+     *  empty, so that no other index can take the same name; cleanup()
+     *  replaces it.
+     */
+    String generateFilename() {
+	try {
+	    return File.createTempFile( "index_", ".seg", new File( path )).getName();
+	}
+	catch ( IOException e ) {
+	    throw new RuntimeException( e );
+	}
+    }
+
+
+    /**
+     *  Inserts this token in the in-memory buffer.
+     */
+    public synchronized void insert( String token, int docID, int offset ) {
+	buffer.insert( token, docID, offset );
+    }
+
+
+    /**
+     *  Writes a partial index, built by one indexing thread, to a new
+     *  segment and publishes it. Only the publishing is synchronized,
+     *  so several threads can write their segments at the same time.
+     */
+    public void insertAll( HashedIndex partial ) {
+	File f = new File( path, file.getName() + "." + segmentNumber.incrementAndGet() );
+	try {
+	    writeSegment( f, partial.getTerms(), partial );
+	    publish( Segment.open( f ));
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	    f.delete();
+	    // Keep the postings, although they won't be searchable until cleanup()
+	    synchronized ( this ) {
+		buffer.insertAll( partial );
+	    }
+	}
+    }
+
+
+    /**
+     *  Marks a document as deleted. It disappears from search results
+     *  at once, and from the index files at the next cleanup().
+     */
+    public synchronized void delete( int docID ) {
+	if ( docID < 0 ) {
+	    return;
+	}
+	BitSet deleted = (BitSet)snapshot.deleted.clone();
+	deleted.set( docID );
+	snapshot = new Snapshot( snapshot.segments, deleted );
+	docTable.remove( docID );
+	if ( merger != null ) {
+	    merger.segmentsChanged();
+	}
+    }
+
+
+    /**  The files the index was built from */
+    public Manifest getManifest() {
+	return manifest;
+    }
+
+
+    /**  The main segment file */
+    public File getFile() {
+	return file;
+    }
+
+    /**  The published segments */
+    public Segment[] getSegments() {
+	return snapshot.segments;
+    }
+
+    /**  The deleted documents. Must not be modified. */
+    public BitSet getDeleted() {
+	return snapshot.deleted;
+    }
+
+
+    /**
+     *  Starts merging segments in the background, writing at most
+     *  @code{bytesPerSecond} bytes per second (0 for no limit).
+     */
+    public synchronized void startMerging( double bytesPerSecond ) {
+	if ( merger == null ) {
+	    merger = new MergeScheduler( this, bytesPerSecond );
+	    merger.start();
+	}
+    }
+
+
+    /**
+     *  Merges some of the published segments into a new partial segment,
+     *  leaving out deleted documents, and publishes it in their place.
+     *  The segments are read and written without holding the lock of
+     *  the index, so indexing and searching go on meanwhile. Documents
+     *  purged by the merge are taken out of the deleted set.
+     */
+    public void merge( Segment[] inputs, double bytesPerSecond ) throws IOException {
+	synchronized ( mergeLock ) {
+	    HashSet<Segment> merged = new HashSet<Segment>( Arrays.asList( inputs ));
+	    if ( !Arrays.asList( snapshot.segments ).containsAll( merged )) {
+		// Already merged by cleanup()
+		return;
+	    }
+	    BitSet deleted = snapshot.deleted;
+	    File f = new File( path, file.getName() + "." + segmentNumber.incrementAndGet() );
+	    File tmp = new File( f.getPath() + ".tmp" );
+	    TermStream[] streams = new TermStream[inputs.length];
+	    for ( int k=0; k<inputs.length; k++ ) {
+		streams[k] = inputs[k].stream();
+	    }
+	    SegmentWriter writer = new SegmentWriter( tmp, bytesPerSecond );
+	    TermStream terms = withoutDeleted( new MergedTermStream( streams ), deleted );
+	    while ( terms.next() ) {
+		writer.add( terms.term(), terms.postings() );
+	    }
+	    BitSet purged = new BitSet();
+	    for ( Segment segment : inputs ) {
+		segment.copyDocuments( writer, deleted );
+		for ( int docID : segment.documentIDs() ) {
+		    if ( isDeleted( docID, deleted )) {
+			purged.set( docID );
+		    }
+		}
+	    }
+	    writer.close();
+	    if ( !tmp.renameTo( f )) {
+		tmp.delete();
+		throw new IOException( "Couldn't rename " + tmp + " to " + f );
+	    }
+	    Segment segment = Segment.open( f );
+	    // The documents must not be in two segments if the program stops
+	    for ( Segment input : inputs ) {
+		input.getFile().delete();
+		PostingsCache.getShared().removeAll( input );
+	    }
+	    synchronized ( this ) {
+		ArrayList<Segment> segments = new ArrayList<Segment>();
+		for ( Segment s : snapshot.segments ) {
+		    if ( !merged.contains( s )) {
+			segments.add( s );
+		    }
+		}
+		if ( segment.documentCount() > 0 ) {
+		    segments.add( segment );
+		}
+		else {
+		    f.delete();
+		}
+		BitSet stillDeleted = (BitSet)snapshot.deleted.clone();
+		stillDeleted.andNot( purged );
+		snapshot = new Snapshot( segments.toArray( new Segment[segments.size()] ), stillDeleted );
+	    }
+	}
+    }
+
+
+    /**
+     *  Saves the manifest, the term vectors of new documents, the
+     *  document table and the deleted documents.
+     */
+    public synchronized void commit() throws IOException {
+	forwardIndex.commit();
+	docTable.save( documentsFile(), stamp() );
+	manifest.save( manifestFile() );
+	BitSet deleted = snapshot.deleted;
+	if ( deleted.isEmpty() ) {
+	    deletionsFile().delete();
+	    return;
+	}
+	File tmp = new File( deletionsFile().getPath() + ".tmp" );
+	ObjectOutputStream out = new ObjectOutputStream( new FileOutputStream( tmp ));
+	try {
+	    out.writeObject( deleted );
+	}
+	finally {
+	    out.close();
+	}
+	deletionsFile().delete();
+	if ( !tmp.renameTo( deletionsFile() )) {
+	    throw new IOException( "Couldn't rename " + tmp + " to " + deletionsFile() );
+	}
+    }
+
+
+    /**
+     *  Returns the postings for a specific term, or null
+     *  if the term is not in the index.
+     */
+    public PostingsList getPostings( String token ) {
+	return snapshot.getPostings( token );
+    }
+
+
+    /**
+     *  Returns the number of documents containing a term in the
+     *  published segments, counting deleted documents until they are
+     *  merged away, without decoding the postings.
+     */
+    public int documentFrequency( String token ) {
+	return snapshot.documentFrequency( token );
+    }
+
+
+    /**
+     *  Returns all terms with their postings, in sorted order.
+     */
+    public synchronized TermStream getTerms() throws IOException {
+	Segment[] segments = snapshot.segments;
+	TermStream[] inputs = new TermStream[segments.length+1];
+	for ( int k=0; k<segments.length; k++ ) {
+	    inputs[k] = segments[k].stream();
+	}
+	inputs[segments.length] = buffer.getTerms();
+	return new MergedTermStream( inputs );
+    }
+
+
+    /**
+     *  Returns all published terms in sorted order.
+     */
+    public FrontCodedLexicon getLexicon() {
+	return snapshot.getLexicon();
+    }
+
+
+    /**
+     *  Searches the index for postings matching the query. All terms
+     *  are looked up in the same snapshot.
+     */
+    public PostingsList search( Query query, int queryType, int rankingType ) {
+	Snapshot s = snapshot;
+	ArrayList<PostingsList> postingsLists = new ArrayList<PostingsList>();
+	for ( String term : query.terms ) {
+	    postingsLists.add( TermExpander.getPostings( s, term ));
+	}
+	return QueryEngine.search( postingsLists, query, queryType, rankingType );
+    }
+
+
+    /**
+     *  Merges all segments and the buffered postings into a new main
+     *  segment file, which replaces the old one. Deleted documents are
+     *  left out. The partial segments are deleted; searches still using
+     *  them keep their mappings. Waits for a running background merge.
+     */
+    public void cleanup() {
+	synchronized ( mergeLock ) {
+	    synchronized ( this ) {
+		cleanupLocked();
+	    }
+	}
+    }
+
+
+    private void cleanupLocked() {
+	Segment[] segments = snapshot.segments;
+	BitSet deleted = snapshot.deleted;
+	if ( buffer.termCount() == 0 && deleted.isEmpty() && segments.length == 1 && segments[0].getFile().equals( file )) {
+	    return;
+	}
+	try {
+	    File tmp = new File( file.getPath() + ".tmp" );
+	    TermStream live = withoutDeleted( getTerms(), deleted );
+	    synchronized ( docTable ) {
+		writeSegment( tmp, live, docTable );
+	    }
+	    if ( !tmp.renameTo( file )) {
+		// Some systems don't rename onto an existing file
+		file.delete();
+		if ( !tmp.renameTo( file )) {
+		    throw new IOException( "Couldn't rename " + tmp + " to " + file );
+		}
+	    }
+	    snapshot = new Snapshot( new Segment[] { Segment.open( file ) }, new BitSet() );
+	    buffer.clear();
+	    commit();
+	    for ( Segment segment : segments ) {
+		if ( !segment.getFile().equals( file )) {
+		    segment.getFile().delete();
+		}
+		PostingsCache.getShared().removeAll( segment );
+	    }
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Adds a segment to the published ones.
+     */
+    private synchronized void publish( Segment segment ) {
+	Segment[] old = snapshot.segments;
+	Segment[] segments = Arrays.copyOf( old, old.length+1 );
+	segments[old.length] = segment;
+	snapshot = new Snapshot( segments, snapshot.deleted );
+	if ( merger != null ) {
+	    merger.segmentsChanged();
+	}
+    }
+
+
+    private File manifestFile() {
+	return new File( path, file.getName() + ".manifest" );
+    }
+
+    private File deletionsFile() {
+	return new File( path, file.getName() + ".del" );
+    }
+
+    private File documentsFile() {
+	return new File( path, file.getName() + ".meta" );
+    }
+
+    /**
+     *  Identifies the version of the main segment, so that a document
+     *  table saved with an older main segment is not used.
+     */
+    private long stamp() {
+	return 31 * file.length() + file.lastModified();
+    }
+
+
+    /**
+     *  Returns @code{list} without the deleted documents.
+     */
+    private static PostingsList withoutDeleted( PostingsList list, BitSet deleted ) {
+	if ( list == null || deleted.isEmpty() ) {
+	    return list;
+	}
+	int i = 0;
+	while ( i < list.size() && !isDeleted( list.getDocID( i ), deleted )) {
+	    i++;
+	}
+	if ( i == list.size() ) {
+	    return list;
+	}
+	PostingsList result = new PostingsList();
+	for ( int k=0; k<list.size(); k++ ) {
+	    if ( !isDeleted( list.getDocID( k ), deleted )) {
+		result.add( list, k );
+	    }
+	}
+	return result;
+    }
+
+    private static boolean isDeleted( int docID, BitSet deleted ) {
+	return docID >= 0 && deleted.get( docID );
+    }
+
+
+    /**
+     *  Returns @code{terms} without the deleted documents, and without
+     *  the terms that only occur in them.
+     */
+    private static TermStream withoutDeleted( final TermStream terms, final BitSet deleted ) {
+	return new TermStream() {
+	    PostingsList current;
+	    public boolean next() throws IOException {
+		while ( terms.next() ) {
+		    current = withoutDeleted( terms.postings(), deleted );
+		    if ( current.size() > 0 ) {
+			return true;
+		    }
+		}
+		return false;
+	    }
+	    public String term() {
+		return terms.term();
+	    }
+	    public PostingsList postings() {
+		return current;
+	    }
+	};
+    }
+
+
+    /**
+     *  Writes terms and the documents of a partial index to a segment file.
+     */
+    private static void writeSegment( File f, TermStream terms, HashedIndex partial ) throws IOException {
+	SegmentWriter writer = writeTerms( f, terms );
+	Map<String,Integer> lengths = partial.getDocumentLengths();
+	for ( Map.Entry<String,String> e : partial.getDocumentNames().entrySet() ) {
+	    Integer length = lengths.get( e.getKey() );
+	    int id = Integer.parseInt( e.getKey() );
+	    writer.addDocument( id, e.getValue(), length == null ? 0 : length, docTable.getNorm( id ));
+	}
+	writer.close();
+    }
+
+
+    /**
+     *  Writes terms and all documents of a document table to a segment file.
+     */
+    private static void writeSegment( File f, TermStream terms, DocumentTable documents ) throws IOException {
+	SegmentWriter writer = writeTerms( f, terms );
+	for ( int d=documents.nextDocument( 0 ); d>=0; d=documents.nextDocument( d+1 )) {
+	    writer.addDocument( d, documents.getName( d ), documents.getLength( d ), documents.getNorm( d ));
+	}
+	writer.close();
+    }
+
+
+    private static SegmentWriter writeTerms( File f, TermStream terms ) throws IOException {
+	SegmentWriter writer = new SegmentWriter( f );
+	while ( terms.next() ) {
+	    writer.add( terms.term(), terms.postings() );
+	}
+	return writer;
+    }
+
+
+    /**
+     *  A fixed set of segments and deleted documents, searched as one
+     *  index.
+     */
+    private static class Snapshot implements TermExpander.Source {
+
+	final Segment[] segments;
+
+	/** Documents left out of all results. Never modified. */
+	final BitSet deleted;
+
+	/** All terms of the segments, built on first use. */
+	private FrontCodedLexicon lexicon;
+
+	Snapshot( Segment[] segments, BitSet deleted ) {
+	    this.segments = segments;
+	    this.deleted = deleted;
+	}
+
+	/**
+	 *  Returns the postings of a term in all segments, without the
+	 *  deleted documents. A list made for the call gets the largest
+	 *  score bound of the term's lists in the segments, which the
+	 *  segments cache, so that ranked retrieval need not compute it.
+	 */
+	public PostingsList getPostings( String term ) {
+	    PostingsList list = postings( term );
+	    PostingsList live = withoutDeleted( list, deleted );
+	    if ( live != null && ( live != list || segments.length > 1 )) {
+		int version = Index.docTable.version();
+		double bound = 0;
+		for ( Segment segment : segments ) {
+		    bound = Math.max( bound, segment.scoreBound( term ));
+		}
+		live.setScoreBound( bound, version );
+	    }
+	    return live;
+	}
+
+	private PostingsList postings( String term ) {
+	    if ( segments.length == 1 ) {
+		return segments[0].getPostings( term );
+	    }
+	    ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+	    for ( Segment segment : segments ) {
+		PostingsList list = segment.getPostings( term );
+		if ( list != null ) {
+		    lists.add( list );
+		}
+	    }
+	    return lists.isEmpty() ? null : PostingsList.union( lists );
+	}
+
+	int documentFrequency( String term ) {
+	    int df = 0;
+	    for ( Segment segment : segments ) {
+		int i = segment.find( term );
+		if ( i >= 0 ) {
+		    df += segment.documentFrequency( i );
+		}
+	    }
+	    return df;
+	}
+
+	public synchronized FrontCodedLexicon getLexicon() {
+	    if ( lexicon == null ) {
+		FrontCodedLexicon l = new FrontCodedLexicon();
+		for ( Segment segment : segments ) {
+		    l = FrontCodedLexicon.union( l, segment.getLexicon() );
+		}
+		lexicon = l;
+	    }
+	    return lexicon;
+	}
+    }
+}
@@ -1,195 +1,638 @@
-/*  
- *   This file is part of the computer assignment for the
- *   Information Retrieval course at KTH.
- * 
- *   First version:  Johan Boye, 2010
- *   Second version: Johan Boye, 2012
- *   Additions: Hedvig Kjellström, 2012
- */  
-
-package ir;
-
-import com.larvalabs.megamap.MegaMapManager;
-import com.larvalabs.megamap.MegaMap;
-import java.io.Serializable;
-import java.util.LinkedList;
-import java.util.HashMap;
-import java.util.Set;
-
-
-public class MegaIndex implements Index {
-
-    /** 
-     *  The index as a hash map that can also extend to secondary 
-     *	memory if necessary. 
-     */
-    private MegaMap index;
-
-
-    /** 
-     *  The MegaMapManager is the user's entry point for creating and
-     *  saving MegaMaps on disk.
-     */
-    private MegaMapManager manager;
-
-
-    /** The directory where to place index files on disk. */
-    private static final String path = "./index";
-
-
-    /**
-     *  Create a new index and invent a name for it.
-     */
-    public MegaIndex() {
-	try {
-	    manager = MegaMapManager.getMegaMapManager();
-	    index = manager.createMegaMap( generateFilename(), path, true, false );
-	}
-	catch ( Exception e ) {
-	    e.printStackTrace();
-	}
-    }
-
-
-    /**
-     *  Create a MegaIndex, possibly from a list of smaller
-     *  indexes.
-     */
-    public MegaIndex( LinkedList<String> indexfiles ) {
-	try {
-	    manager = MegaMapManager.getMegaMapManager();
-	    if ( indexfiles.size() == 0 ) {
-		// No index file names specified. Construct a new index and
-		// invent a name for it.
-		index = manager.createMegaMap( generateFilename(), path, true, false );
-		
-	    }
-	    else if ( indexfiles.size() == 1 ) {
-		// Read the specified index from file
-		index = manager.createMegaMap( indexfiles.get(0), path, true, false );
-		HashMap<String,String> m = (HashMap<String,String>)index.get( "..docIDs" );
-		if ( m == null ) {
-		    System.err.println( "Couldn't retrieve the associations between docIDs and document names" );
-		}
-		else {
-		    docIDs.putAll( m );
-		}
-	    }
-	    else {
-		// Merge the specified index files into a large index.
-		MegaMap[] indexesToBeMerged = new MegaMap[indexfiles.size()];
-		for ( int k=0; k<indexfiles.size(); k++ ) {
-		    System.err.println( indexfiles.get(k) );
-		    indexesToBeMerged[k] = manager.createMegaMap( indexfiles.get(k), path, true, false );
-		}
-		index = merge( indexesToBeMerged );
-		for ( int k=0; k<indexfiles.size(); k++ ) {
-		    manager.removeMegaMap( indexfiles.get(k) );
-		}
-	    }
-	}
-	catch ( Exception e ) {
-	    e.printStackTrace();
-	}
-    }
-
-
-    /**
-     *  Generates unique names for index files
-     */
-    String generateFilename() {
-	String s = "index_" + Math.abs((new java.util.Date()).hashCode());
-	System.err.println( s );
-	return s;
-    }
-
-
-    /**
-     *   It is ABSOLUTELY ESSENTIAL to run this method before terminating 
-     *   the JVM, otherwise the index files might become corrupted.
-     */
-    public void cleanup() {
-	// Save the docID-filename association list in the MegaMap as well
-	index.put( "..docIDs", docIDs );
-	// Shutdown the MegaMap thread gracefully
-	manager.shutdown();
-    }
-
-
-
-    /**
-     *  Returns the dictionary (the set of terms in the index)
-     *  as a HashSet.
-     */
-    public Set getDictionary() {
-	return index.getKeys();
-    }
-
-
-    /**
-     *  Merges several indexes into one.
-     */
-    MegaMap merge( MegaMap[] indexes ) {
-	try {
-	    MegaMap res = manager.createMegaMap( generateFilename(), path, true, false );
-	    //
-	    //  YOUR CODE HERE
-	    //
-	    return res;
-	}
-	catch ( Exception e ) {
-	    e.printStackTrace();
-	    return null;
-	}
-    }
-
-    /**
-     *  Inserts this token in the hashtable.
-     */
-    public void insert( String token, int docID, int offset ) {
-	//
-	//  COPY THE CODE FROM YOUR HashedIndex CLASS HERE
-	//
-    }
-
-
-    /**
-     *  Returns the postings for a specific term, or null
-     *  if the term is not in the index.
-     */
-    public PostingsList getPostings( String token ) {
-	try {
-	    return (PostingsList)index.get( token );
-	}
-	catch( Exception e ) {
-	    return new PostingsList();
-	}
-    }
-
-
-    /**
-     *  Searches the index for postings matching the query.
-     */
-    public PostingsList search( Query query, int queryType, int rankingType ) {
-	//
-	//  REPLACE THE STATEMENT BELOW WITH THE CODE FROM
-	//  YOUR HashedIndex CLASS
-	//
-	return null;
-    }
-
-}
-
-
-
-
-
-
-
-
-
-
- 
-
-
-
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   First version:  Johan Boye, 2010
+ *   Second version: Johan Boye, 2012
+ *   Additions: Hedvig Kjellström, 2012
+ */  
+
+package ir;
+
+import com.larvalabs.megamap.MegaMapManager;
+import com.larvalabs.megamap.MegaMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.HashMap;
+
+
+public class MegaIndex implements Index {
+
+    /** 
+     *  The index as a hash map that can also extend to secondary 
+     *	memory if necessary. 
+     */
+    private MegaMap index;
+
+
+    /**
+     *  Postings inserted since the last block was written. When the
+     *  buffer exceeds the memory budget it is written to disk as a
+     *  sorted block (single-pass in-memory indexing), and flush()
+     *  merges all blocks into the MegaMap.
+     */
+    private HashedIndex buffer = new HashedIndex();
+
+    /** Blocks written to disk since the last flush. */
+    private ArrayList<Segment> blocks = new ArrayList<Segment>();
+
+    /** The maximum memory used by the buffer, in bytes. */
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    /** The terms stored in the MegaMap, in sorted order. */
+    private FrontCodedLexicon lexicon = new FrontCodedLexicon();
+
+    /**
+     *  The terms of the MegaMap, the blocks and the buffer together,
+     *  or null if terms have been added since it was built. Writing
+     *  blocks and flushing only move terms, so they keep it.
+     */
+    private FrontCodedLexicon allTerms;
+
+
+    /** 
+     *  The MegaMapManager is the user's entry point for creating and
+     *  saving MegaMaps on disk.
+     */
+    private MegaMapManager manager;
+
+
+    /** The directory where to place index files on disk. */
+    private static final String path = "./index";
+
+
+    /**
+     *  Create a new index and invent a name for it.
+     */
+    public MegaIndex() {
+	try {
+	    manager = MegaMapManager.getMegaMapManager();
+	    index = manager.createMegaMap( generateFilename(), path, true, false );
+	}
+	catch ( Exception e ) {
+	    e.printStackTrace();
+	}
+    }
+
+
+    /**
+     *  Create a MegaIndex, possibly from a list of smaller
+     *  indexes.
+     */
+    public MegaIndex( LinkedList<String> indexfiles ) {
+	try {
+	    manager = MegaMapManager.getMegaMapManager();
+	    if ( indexfiles.size() == 0 ) {
+		// No index file names specified. Construct a new index and
+		// invent a name for it.
+		index = manager.createMegaMap( generateFilename(), path, true, false );
+		
+	    }
+	    else if ( indexfiles.size() == 1 ) {
+		// Read the specified index from file
+		index = manager.createMegaMap( indexfiles.get(0), path, true, false );
+		DocumentTable t = tableOf( index );
+		if ( t == null && index.get( "..docIDs" ) != null ) {
+		    // Written when docIDs were hash codes of the file names.
+		    // The documents are numbered anew in a new index file.
+		    System.err.println( "Renumbering the documents of " + indexfiles.get(0) );
+		    index = merge( new MegaMap[] { index } );
+		}
+		else {
+		    lexicon = lexiconOf( index );
+		    if ( t == null ) {
+			System.err.println( "Couldn't retrieve the associations between docIDs and document names" );
+		    }
+		    else {
+			docTable.putAll( t );
+		    }
+		}
+	    }
+	    else {
+		// Merge the specified index files into a large index.
+		MegaMap[] indexesToBeMerged = new MegaMap[indexfiles.size()];
+		for ( int k=0; k<indexfiles.size(); k++ ) {
+		    System.err.println( indexfiles.get(k) );
+		    indexesToBeMerged[k] = manager.createMegaMap( indexfiles.get(k), path, true, false );
+		}
+		index = merge( indexesToBeMerged );
+		for ( int k=0; k<indexfiles.size(); k++ ) {
+		    manager.removeMegaMap( indexfiles.get(k) );
+		}
+	    }
+	}
+	catch ( Exception e ) {
+	    e.printStackTrace();
+	}
+    }
+
+
+    /**
+     *  Generates unique names for index files
+     */
+    String generateFilename() {
+	String s = "index_" + Math.abs((new java.util.Date()).hashCode());
+	System.err.println( s );
+	return s;
+    }
+
+
+    /**
+     *   It is ABSOLUTELY ESSENTIAL to run this method before terminating 
+     *   the JVM, otherwise the index files might become corrupted.
+     */
+    public void cleanup() {
+	flush();
+	// Save the names, lengths and norms of the documents in the MegaMap as well
+	index.put( "..docTable", docTable );
+	index.put( "..lexicon", lexicon );
+	// Shutdown the MegaMap thread gracefully
+	manager.shutdown();
+    }
+
+
+
+    /**
+     *  Returns the terms of the index in sorted order, including those
+     *  still in blocks or in memory. Nothing is flushed, so expanding
+     *  a query term does not wait for a merge.
+     */
+    public synchronized FrontCodedLexicon getLexicon() {
+	if ( allTerms == null ) {
+	    FrontCodedLexicon l = lexicon;
+	    for ( Segment block : blocks ) {
+		l = FrontCodedLexicon.union( l, block.getLexicon() );
+	    }
+	    if ( buffer.termCount() > 0 ) {
+		l = FrontCodedLexicon.union( l, buffer.getLexicon() );
+	    }
+	    allTerms = l;
+	}
+	return allTerms;
+    }
+
+
+    /**
+     *  Returns the document table stored in a MegaMap, or null if there
+     *  is none (or it was written by an older version of the class).
+     */
+    private static DocumentTable tableOf( MegaMap map ) {
+	try {
+	    Object o = map.get( "..docTable" );
+	    if ( o instanceof DocumentTable ) {
+		return (DocumentTable)o;
+	    }
+	}
+	catch ( Exception e ) {
+	    System.err.println( "Couldn't read the document table: " + e.getMessage() );
+	}
+	return null;
+    }
+
+
+    /**
+     *  The documents of an index being merged: their docIDs, in
+     *  increasing order, with their names, lengths and norms.
+     */
+    private static class Documents {
+	int[] docIDs;
+	String[] names;
+	int[] lengths;
+	float[] norms;
+
+	Documents( int n ) {
+	    docIDs = new int[n];
+	    names = new String[n];
+	    lengths = new int[n];
+	    norms = new float[n];
+	}
+    }
+
+
+    /**
+     *  Returns the documents of a MegaMap, from its document table or,
+     *  for index files written when docIDs were hash codes, from the
+     *  map of names.
+     */
+    private static Documents documentsOf( MegaMap map ) {
+	DocumentTable t = tableOf( map );
+	if ( t != null ) {
+	    Documents docs = new Documents( t.count() );
+	    int i = 0;
+	    for ( int d=t.nextDocument( 0 ); d>=0 && i<docs.docIDs.length; d=t.nextDocument( d+1 )) {
+		docs.docIDs[i] = d;
+		docs.names[i] = t.getName( d );
+		docs.lengths[i] = t.getLength( d );
+		docs.norms[i] = t.getNorm( d );
+		i++;
+	    }
+	    return docs;
+	}
+	HashMap<String,String> m = null;
+	try {
+	    m = (HashMap<String,String>)map.get( "..docIDs" );
+	}
+	catch ( Exception e ) {
+	    e.printStackTrace();
+	}
+	if ( m == null ) {
+	    System.err.println( "Couldn't retrieve the associations between docIDs and document names" );
+	    return new Documents( 0 );
+	}
+	Documents docs = new Documents( m.size() );
+	int i = 0;
+	for ( String docID : m.keySet() ) {
+	    docs.docIDs[i++] = Integer.parseInt( docID );
+	}
+	Arrays.sort( docs.docIDs );
+	for ( i=0; i<docs.docIDs.length; i++ ) {
+	    docs.names[i] = m.get( "" + docs.docIDs[i] );
+	}
+	return docs;
+    }
+
+
+    /**
+     *  Returns the lexicon stored in a MegaMap, or builds it from the
+     *  keys for index files written before the lexicon was stored.
+     */
+    private static FrontCodedLexicon lexiconOf( MegaMap map ) {
+	try {
+	    Object o = map.get( "..lexicon" );
+	    if ( o instanceof FrontCodedLexicon ) {
+		return (FrontCodedLexicon)o;
+	    }
+	}
+	catch ( Exception e ) {
+	    e.printStackTrace();
+	}
+	ArrayList<String> terms = new ArrayList<String>();
+	for ( Object key : map.getKeys() ) {
+	    String term = (String)key;
+	    // Skip the docID table and similar bookkeeping entries
+	    if ( !term.startsWith( ".." )) {
+		terms.add( term );
+	    }
+	}
+	Collections.sort( terms );
+	FrontCodedLexicon l = new FrontCodedLexicon();
+	for ( String term : terms ) {
+	    l.add( term );
+	}
+	return l;
+    }
+
+
+    /**
+     *  Sets the maximum memory used for buffering postings, in bytes.
+     */
+    public void setMemoryBudget( long bytes ) {
+	memoryBudget = bytes;
+    }
+
+
+    /**
+     *  Merges several indexes into one. The terms of each index are
+     *  visited in sorted order and merged with a k-way merge, so only
+     *  the postings of one term per index are in memory at a time.
+     *
+     *  The docIDs of the indexes overlap, so the documents are numbered
+     *  anew: 0, 1, 2, ... in order of name. Documents of one directory,
+     *  which tend to have terms in common, then get nearby docIDs, which
+     *  keeps the gaps in the postings small. A document found in several
+     *  indexes gets one docID.
+     */
+    MegaMap merge( MegaMap[] indexes ) {
+	try {
+	    MegaMap res = manager.createMegaMap( generateFilename(), path, true, false );
+	    Documents[] docs = new Documents[indexes.length];
+	    for ( int k=0; k<indexes.length; k++ ) {
+		docs[k] = documentsOf( indexes[k] );
+	    }
+	    int[][] renumbered = renumber( docs );
+	    TermStream[] inputs = new TermStream[indexes.length];
+	    for ( int k=0; k<indexes.length; k++ ) {
+		inputs[k] = new MegaMapTermStream( indexes[k], lexiconOf( indexes[k] ), docs[k].docIDs, renumbered[k] );
+	    }
+	    TermStream merged = new MergedTermStream( inputs );
+	    while ( merged.next() ) {
+		res.put( merged.term(), PostingsCodec.encode( merged.postings() ));
+		lexicon.add( merged.term() );
+	    }
+	    return res;
+	}
+	catch ( Exception e ) {
+	    e.printStackTrace();
+	    return null;
+	}
+    }
+
+
+    /**
+     *  Numbers the documents of the indexes to be merged in order of
+     *  name, and adds them to the document table. Returns the new docID
+     *  of each document.
+     */
+    private int[][] renumber( Documents[] docs ) {
+	int total = 0;
+	for ( Documents d : docs ) {
+	    total += d.docIDs.length;
+	}
+	// The index and position of each document, sorted by name
+	final String[] names = new String[total];
+	int[] owner = new int[total];
+	int[] position = new int[total];
+	Integer[] order = new Integer[total];
+	int j = 0;
+	for ( int k=0; k<docs.length; k++ ) {
+	    for ( int i=0; i<docs[k].docIDs.length; i++ ) {
+		names[j] = docs[k].names[i] == null ? "" : docs[k].names[i];
+		owner[j] = k;
+		position[j] = i;
+		order[j] = j;
+		j++;
+	    }
+	}
+	Arrays.sort( order, new java.util.Comparator<Integer>() {
+	    public int compare( Integer a, Integer b ) {
+		return names[a].compareTo( names[b] );
+	    }
+	});
+	int[][] renumbered = new int[docs.length][];
+	for ( int k=0; k<docs.length; k++ ) {
+	    renumbered[k] = new int[docs[k].docIDs.length];
+	}
+	int docID = -1;
+	String last = null;
+	for ( int o : order ) {
+	    Documents d = docs[owner[o]];
+	    int i = position[o];
+	    if ( !names[o].equals( last )) {
+		last = names[o];
+		docID++;
+		docTable.put( docID, d.names[i], d.lengths[i], d.norms[i] );
+	    }
+	    renumbered[owner[o]][i] = docID;
+	}
+	return renumbered;
+    }
+
+    /**
+     *  Inserts this token in the hashtable.
+     */
+    public void insert( String token, int docID, int offset ) {
+	buffer.insert( token, docID, offset );
+	allTerms = null;
+	if ( buffer.memoryUse() > memoryBudget ) {
+	    writeBlock();
+	}
+    }
+
+
+    /**
+     *  Writes the buffer to disk as a block sorted by term, and empties
+     *  the buffer.
+     */
+    private void writeBlock() {
+	try {
+	    File file = new File( path, generateFilename() + ".block" + blocks.size() );
+	    SegmentWriter writer = new SegmentWriter( file );
+	    TermStream stream = buffer.getTerms();
+	    while ( stream.next() ) {
+		writer.add( stream.term(), stream.postings() );
+	    }
+	    writer.close();
+	    blocks.add( Segment.open( file ));
+	    buffer.clear();
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	}
+    }
+
+
+    /**
+     *  Merges the blocks on disk and the buffered postings into the
+     *  MegaMap in the compressed format, together with the postings
+     *  already stored there.
+     */
+    public synchronized void flush() {
+	try {
+	    TermStream[] inputs = new TermStream[blocks.size()+1];
+	    inputs[0] = buffer.getTerms();
+	    for ( int k=0; k<blocks.size(); k++ ) {
+		inputs[k+1] = blocks.get( k ).stream();
+	    }
+	    TermStream merged = new MergedTermStream( inputs );
+	    FrontCodedLexicon added = new FrontCodedLexicon();
+	    while ( merged.next() ) {
+		PostingsList list = merged.postings();
+		PostingsList stored = readPostings( index, merged.term() );
+		if ( stored != null ) {
+		    list = PostingsList.merge( stored, list );
+		}
+		index.put( merged.term(), PostingsCodec.encode( list ));
+		PostingsCache.getShared().remove( this, merged.term() );
+		added.add( merged.term() );
+	    }
+	    lexicon = FrontCodedLexicon.union( lexicon, added );
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	    return;
+	}
+	for ( Segment block : blocks ) {
+	    block.getFile().delete();
+	}
+	blocks.clear();
+	buffer.clear();
+    }
+
+
+    /**
+     *  Adds the postings of a partial index, built by one indexing
+     *  thread, to the buffer.
+     */
+    public synchronized void insertAll( HashedIndex partial ) {
+	buffer.insertAll( partial );
+	allTerms = null;
+	if ( buffer.memoryUse() > memoryBudget ) {
+	    writeBlock();
+	}
+    }
+
+
+    /**
+     *  Returns the postings for a specific term, or null
+     *  if the term is not in the index.
+     */
+    public PostingsList getPostings( String token ) {
+	PostingsList result = readPostings( token );
+	for ( Segment block : blocks ) {
+	    result = union( result, block.getPostings( token ));
+	}
+	return union( result, buffer.getPostings( token ));
+    }
+
+
+    /**
+     *  Returns the number of documents containing a term, read from the
+     *  stored postings without decoding them.
+     */
+    public int documentFrequency( String token ) {
+	int df = 0;
+	PostingsList cached = PostingsCache.getShared().get( this, token );
+	if ( cached != null ) {
+	    df = cached.size();
+	}
+	else {
+	    try {
+		Object o = index.get( token );
+		if ( o instanceof byte[] ) {
+		    df = PostingsCodec.documentFrequency( ByteBuffer.wrap( (byte[])o ));
+		}
+		else if ( o instanceof PostingsList ) {
+		    df = ((PostingsList)o).size();
+		}
+	    }
+	    catch( Exception e ) {
+	    }
+	}
+	for ( Segment block : blocks ) {
+	    int i = block.find( token );
+	    if ( i >= 0 ) {
+		df += block.documentFrequency( i );
+	    }
+	}
+	return df + buffer.documentFrequency( token );
+    }
+
+
+    private static PostingsList union( PostingsList a, PostingsList b ) {
+	if ( a == null ) {
+	    return b;
+	}
+	return b == null ? a : PostingsList.merge( a, b );
+    }
+
+
+    /**
+     *  Returns the postings stored on disk for a term, from the shared
+     *  PostingsCache if they have been read before.
+     */
+    private PostingsList readPostings( String token ) {
+	PostingsCache cache = PostingsCache.getShared();
+	PostingsList list = cache.get( this, token );
+	if ( list == null ) {
+	    list = readPostings( index, token );
+	    cache.put( this, token, list );
+	}
+	return list;
+    }
+
+
+    /**
+     *  Reads and decodes the postings stored on disk for a term.
+     */
+    private static PostingsList readPostings( MegaMap map, String token ) {
+	try {
+	    Object o = map.get( token );
+	    if ( o instanceof byte[] ) {
+		return PostingsCodec.decode( (byte[])o );
+	    }
+	    // Index files written before the compressed format
+	    return (PostingsList)o;
+	}
+	catch( Exception e ) {
+	    return new PostingsList();
+	}
+    }
+
+
+    /**
+     *  Visits the terms of a MegaMap in the order of its lexicon. The
+     *  postings are read one term at a time, and their docIDs are
+     *  renumbered if the stream was given a renumbering.
+     */
+    private static class MegaMapTermStream implements TermStream {
+
+	MegaMap map;
+	FrontCodedLexicon.Cursor cursor;
+	String current;
+
+	/** DocID from[i] becomes to[i]; null to keep the docIDs. */
+	int[] from, to;
+
+	MegaMapTermStream( MegaMap map, FrontCodedLexicon lexicon ) {
+	    this( map, lexicon, null, null );
+	}
+
+	MegaMapTermStream( MegaMap map, FrontCodedLexicon lexicon, int[] from, int[] to ) {
+	    this.map = map;
+	    cursor = lexicon.cursor( 0 );
+	    this.from = from;
+	    this.to = to;
+	}
+
+	public boolean next() {
+	    current = cursor.next() ? cursor.toString() : null;
+	    return current != null;
+	}
+
+	public String term() {
+	    return current;
+	}
+
+	public PostingsList postings() {
+	    PostingsList list = readPostings( map, current );
+	    return from == null ? list : list.renumber( from, to );
+	}
+    }
+
+
+    /**
+     *  Returns all terms with their postings, in sorted order.
+     */
+    public TermStream getTerms() throws IOException {
+	TermStream[] inputs = new TermStream[blocks.size()+2];
+	inputs[0] = new MegaMapTermStream( index, lexicon );
+	inputs[1] = buffer.getTerms();
+	for ( int k=0; k<blocks.size(); k++ ) {
+	    inputs[k+2] = blocks.get( k ).stream();
+	}
+	return new MergedTermStream( inputs );
+    }
+
+
+    /**
+     *  Searches the index for postings matching the query.
+     */
+    public PostingsList search( Query query, int queryType, int rankingType ) {
+	ArrayList<PostingsList> postingsLists = new ArrayList<PostingsList>();
+	for ( String term : query.terms ) {
+	    postingsLists.add( TermExpander.getPostings( this, term ));
+	}
+	return QueryEngine.search( postingsLists, query, queryType, rankingType );
+    }
+
+}
+
+
+
+
+
+
+
+
+
+
+ 
+
+
+
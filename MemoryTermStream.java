@@ -0,0 +1,41 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ *   A TermStream over postings held in memory, indexed by the term
+ *   identifiers of a TermDictionary.
+ */
+public class MemoryTermStream implements TermStream {
+
+    private TermDictionary dictionary;
+    private PostingsList[] postings;
+
+    /** The term identifiers in sorted term order. */
+    private int[] order;
+    private int i = -1;
+    private String current;
+
+
+    public MemoryTermStream( TermDictionary dictionary, PostingsList[] postings ) {
+	this.dictionary = dictionary;
+	this.postings = postings;
+	order = dictionary.sortedIDs();
+    }
+
+    public boolean next() {
+	current = ++i < order.length ? dictionary.term( order[i] ) : null;
+	return current != null;
+    }
+
+    public String term() {
+	return current;
+    }
+
+    public PostingsList postings() {
+	return postings[order[i]];
+    }
+}
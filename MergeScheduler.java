@@ -0,0 +1,168 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *   Merges the partial segments of a MappedSegmentIndex in the
+ *   background, so that the number of segments a search has to look in
+ *   stays small as the index grows, without ever merging everything at
+ *   once.
+ *
+ *   The merge policy is tiered. Segments are grouped in tiers by size,
+ *   each tier holding segments up to MERGE_FACTOR times larger than the
+ *   tier below. When a tier has MERGE_FACTOR segments, its smallest
+ *   MERGE_FACTOR segments are merged into one segment, which belongs to
+ *   the next tier. Every document is thus rewritten about once per tier,
+ *   and there are at most MERGE_FACTOR-1 segments per tier. A segment
+ *   in which more than MAX_DELETED of the documents have been deleted is
+ *   rewritten on its own, to purge them. The main segment is only
+ *   rewritten by cleanup().
+ *
+ *   Merges run one at a time in a daemon thread, and write at most a
+ *   given number of bytes per second.
+ */
+public class MergeScheduler extends Thread {
+
+    /** Number of segments merged at a time, and size ratio of tiers. */
+    public static final int MERGE_FACTOR = 10;
+
+    /** Segments smaller than this are all in the lowest tier. */
+    public static final long FLOOR_SIZE = 1 << 20;
+
+    /** Segments larger than this are only rewritten to purge deletions. */
+    public static final long MAX_MERGED_SIZE = 1L << 28;
+
+    /** Fraction of deleted documents at which a segment is rewritten. */
+    public static final double MAX_DELETED = 0.2;
+
+    /** Default write rate of merges, in bytes per second. */
+    public static final double DEFAULT_RATE = 20 << 20;
+
+    private MappedSegmentIndex index;
+
+    /** Write rate of merges, in bytes per second, or 0 for no limit. */
+    private double bytesPerSecond;
+
+    /** Whether the segments have changed since the policy last looked. */
+    private boolean changed = true;
+
+
+    public MergeScheduler( MappedSegmentIndex index, double bytesPerSecond ) {
+	super( "segment-merger" );
+	setDaemon( true );
+	this.index = index;
+	this.bytesPerSecond = bytesPerSecond;
+    }
+
+
+    /**
+     *  Tells the scheduler that segments have been added or documents
+     *  deleted.
+     */
+    public synchronized void segmentsChanged() {
+	changed = true;
+	notifyAll();
+    }
+
+
+    public void run() {
+	try {
+	    while ( true ) {
+		synchronized ( this ) {
+		    while ( !changed ) {
+			wait();
+		    }
+		    changed = false;
+		}
+		Segment[] merge;
+		while (( merge = findMerge( index.getSegments(), index.getDeleted(), index.getFile() )) != null ) {
+		    try {
+			index.merge( merge, bytesPerSecond );
+		    }
+		    catch ( IOException e ) {
+			e.printStackTrace();
+			break;
+		    }
+		}
+	    }
+	}
+	catch ( InterruptedException e ) {
+	}
+    }
+
+
+    /**
+     *  Returns the segments to merge next, or null if none should be.
+     *  The segment in file @code{main} is never chosen.
+     */
+    public static Segment[] findMerge( Segment[] segments, BitSet deleted, File main ) {
+	ArrayList<Segment> candidates = new ArrayList<Segment>();
+	for ( Segment segment : segments ) {
+	    if ( segment.getFile().equals( main )) {
+		continue;
+	    }
+	    if ( deletedFraction( segment, deleted ) > MAX_DELETED ) {
+		return new Segment[] { segment };
+	    }
+	    if ( segment.length() <= MAX_MERGED_SIZE / MERGE_FACTOR ) {
+		candidates.add( segment );
+	    }
+	}
+	Collections.sort( candidates, new Comparator<Segment>() {
+	    public int compare( Segment a, Segment b ) {
+		return Long.compare( a.length(), b.length() );
+	    }
+	});
+	// The candidates of each tier are consecutive, smallest first
+	int i = 0;
+	while ( i < candidates.size() ) {
+	    int tier = tier( candidates.get( i ).length() );
+	    int j = i;
+	    while ( j < candidates.size() && tier( candidates.get( j ).length() ) == tier ) {
+		j++;
+	    }
+	    if ( j-i >= MERGE_FACTOR ) {
+		List<Segment> merge = candidates.subList( i, i+MERGE_FACTOR );
+		return merge.toArray( new Segment[MERGE_FACTOR] );
+	    }
+	    i = j;
+	}
+	return null;
+    }
+
+
+    /**  The tier of a segment of the given size */
+    static int tier( long size ) {
+	int tier = 0;
+	for ( long limit=FLOOR_SIZE; size>limit; limit*=MERGE_FACTOR ) {
+	    tier++;
+	}
+	return tier;
+    }
+
+
+    /**  The fraction of the documents of a segment that are deleted */
+    static double deletedFraction( Segment segment, BitSet deleted ) {
+	if ( deleted.isEmpty() || segment.documentCount() == 0 ) {
+	    return 0;
+	}
+	int n = 0;
+	for ( int docID : segment.documentIDs() ) {
+	    if ( docID >= 0 && deleted.get( docID )) {
+		n++;
+	    }
+	}
+	return (double)n / segment.documentCount();
+    }
+}
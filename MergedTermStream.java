@@ -0,0 +1,72 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ *   Merges several TermStreams into one with a k-way heap merge. The
+ *   postings of a term that occurs in several inputs are merged by docID.
+ *   Only the current term of each input is held in memory.
+ */
+public class MergedTermStream implements TermStream {
+
+    /** The inputs, ordered by their current term. */
+    private PriorityQueue<TermStream> heap;
+
+    private String term;
+    private PostingsList postings;
+
+
+    public MergedTermStream( TermStream[] inputs ) throws IOException {
+	heap = new PriorityQueue<TermStream>( Math.max( 1, inputs.length ), new Comparator<TermStream>() {
+		public int compare( TermStream a, TermStream b ) {
+		    return a.term().compareTo( b.term() );
+		}
+	    });
+	for ( TermStream input : inputs ) {
+	    if ( input.next() ) {
+		heap.add( input );
+	    }
+	}
+    }
+
+
+    public boolean next() throws IOException {
+	if ( heap.isEmpty() ) {
+	    term = null;
+	    postings = null;
+	    return false;
+	}
+	TermStream top = heap.poll();
+	term = top.term();
+	postings = top.postings();
+	advance( top );
+	while ( !heap.isEmpty() && heap.peek().term().equals( term )) {
+	    top = heap.poll();
+	    postings = PostingsList.merge( postings, top.postings() );
+	    advance( top );
+	}
+	return true;
+    }
+
+    public String term() {
+	return term;
+    }
+
+    public PostingsList postings() {
+	return postings;
+    }
+
+
+    private void advance( TermStream input ) throws IOException {
+	if ( input.next() ) {
+	    heap.add( input );
+	}
+    }
+}
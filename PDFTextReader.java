@@ -0,0 +1,205 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.util.PDFTextStripper;
+
+/**
+ *   The text of a PDF document, extracted a few pages at a time as it
+ *   is read, so only the text of the current pages is held in memory.
+ *   Every extraction walks the document from its first page, so the
+ *   pages are taken PAGES_PER_CHUNK at a time rather than one by one.
+ *
+ *   Each document has a budget: extraction stops, as if the document
+ *   ended there, once a number of characters have been extracted or
+ *   the document has taken too long. The time is checked as the parser
+ *   reads the file, which stops parsing as well, and between chunks of
+ *   pages; the characters are counted exactly. One huge or pathological
+ *   file then neither fills the heap with its text nor holds up its
+ *   indexing thread for long. The parsed document itself, which PDFBox
+ *   builds before the first page is extracted, is held in memory until
+ *   the reader is closed.
+ */
+public class PDFTextReader extends Reader {
+
+    /** Default number of characters extracted from a document. */
+    public static final long MAX_CHARACTERS = 1 << 24;
+
+    /** Default time spent on a document, in milliseconds. */
+    public static final long MAX_MILLIS = 60000;
+
+    /** Number of pages extracted at a time. */
+    public static final int PAGES_PER_CHUNK = 16;
+
+    /** The name of the document, for messages. */
+    private String name;
+
+    private COSDocument cos;
+    private PDDocument document;
+    private PDFTextStripper stripper;
+
+    private int pages;
+
+    /** The next page to extract, counting from 1. */
+    private int nextPage = 1;
+
+    /** The text of the current pages, and how much of it has been read. */
+    private String text = "";
+    private int pos = 0;
+
+    /** Characters extracted so far, and the most allowed. */
+    private long characters = 0;
+    private long maxCharacters;
+
+    /** When extraction must stop, as System.currentTimeMillis(). */
+    private long deadline;
+
+    /** Set when the deadline stopped the parser. */
+    private boolean outOfTime = false;
+
+
+    /**
+     *  Parses the document read from @code{in}, with the default budget.
+     */
+    public PDFTextReader( InputStream in, String name ) throws IOException {
+	this( in, name, MAX_CHARACTERS, MAX_MILLIS );
+    }
+
+
+    /**
+     *  Parses the document read from @code{in}, which is closed once
+     *  the document has been parsed. A document that runs out of time
+     *  while it is parsed has no text.
+     */
+    public PDFTextReader( InputStream in, String name, long maxCharacters, long maxMillis ) throws IOException {
+	this.name = name;
+	this.maxCharacters = maxCharacters;
+	deadline = System.currentTimeMillis() + maxMillis;
+	try {
+	    PDFParser parser = new PDFParser( new DeadlineInputStream( in ));
+	    parser.parse();
+	    cos = parser.getDocument();
+	    document = new PDDocument( cos );
+	    pages = document.getNumberOfPages();
+	    stripper = new PDFTextStripper();
+	}
+	catch ( IOException e ) {
+	    close();
+	    if ( !outOfTime ) {
+		throw e;
+	    }
+	    System.err.println( "Stopped parsing " + name + ", out of time" );
+	}
+	finally {
+	    in.close();
+	}
+    }
+
+
+    /**
+     *  Fills @code{buf} as far as the text goes, continuing across
+     *  pages, since SimpleTokenizer takes a short read for the end of
+     *  the text.
+     */
+    public int read( char[] buf, int off, int len ) throws IOException {
+	int n = 0;
+	while ( n < len ) {
+	    if ( pos == text.length() ) {
+		if ( !nextPages() ) {
+		    break;
+		}
+		continue;
+	    }
+	    int k = Math.min( len-n, text.length()-pos );
+	    text.getChars( pos, pos+k, buf, off+n );
+	    pos += k;
+	    n += k;
+	}
+	return n == 0 && len > 0 ? -1 : n;
+    }
+
+
+    public void close() throws IOException {
+	text = "";
+	pos = 0;
+	document = null;
+	if ( cos != null ) {
+	    cos.close();
+	    cos = null;
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Extracts the text of the next PAGES_PER_CHUNK pages, unless
+     *  there are no more pages or the budget is spent.
+     */
+    private boolean nextPages() throws IOException {
+	if ( document == null || nextPage > pages ) {
+	    return false;
+	}
+	if ( characters >= maxCharacters || System.currentTimeMillis() > deadline ) {
+	    System.err.println( "Stopped extracting " + name + " after " + ( nextPage-1 ) + " of " + pages + " pages" );
+	    close();
+	    return false;
+	}
+	int last = Math.min( nextPage + PAGES_PER_CHUNK - 1, pages );
+	stripper.setStartPage( nextPage );
+	stripper.setEndPage( last );
+	nextPage = last+1;
+	text = stripper.getText( document );
+	if ( characters + text.length() > maxCharacters ) {
+	    text = text.substring( 0, (int)( maxCharacters - characters ));
+	}
+	characters += text.length();
+	pos = 0;
+	return true;
+    }
+
+
+    /**
+     *  The file as read by the parser, which fails once the deadline
+     *  has passed.
+     */
+    private class DeadlineInputStream extends FilterInputStream {
+
+	DeadlineInputStream( InputStream in ) {
+	    super( in );
+	}
+
+	public int read() throws IOException {
+	    check();
+	    return super.read();
+	}
+
+	public int read( byte[] b, int off, int len ) throws IOException {
+	    check();
+	    return super.read( b, off, len );
+	}
+
+	public long skip( long n ) throws IOException {
+	    check();
+	    return super.skip( n );
+	}
+
+	private void check() throws IOException {
+	    if ( System.currentTimeMillis() > deadline ) {
+		outOfTime = true;
+		throw new IOException( "Out of time parsing " + name );
+	    }
+	}
+    }
+}
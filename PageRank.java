@@ -0,0 +1,407 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *   Computes PageRank over a LinkGraph, and holds the PageRank of every
+ *   document for the PAGERANK ranking type.
+ *
+ *   The scores are computed by power iteration: starting from the
+ *   uniform distribution, each iteration sets the rank of node v to
+ *
+ *      (1-c)/n  +  c * ( sum over u linking to v of rank(u)/out(u)  +  dangling/n )
+ *
+ *   where c is the damping factor and dangling the total rank of nodes
+ *   without links, which is spread over all nodes. Every node only reads
+ *   the ranks of its in-links, so the nodes are divided between threads
+ *   without any locking. Iteration stops when the ranks change by less
+ *   than a threshold in total.
+ *
+ *   The scores of the documents are kept in a dense array indexed by
+ *   docID, so looking one up during search is a single array access.
+ *   The array is saved next to the links file, with a fingerprint of the
+ *   document names it was made for, and is only recomputed when the
+ *   links or the documents change.
+ */
+public class PageRank {
+
+    /** Probability of following a link rather than jumping anywhere. */
+    public static final double DAMPING = 0.85;
+
+    /** Iteration stops when the ranks change less than this in total. */
+    public static final double EPSILON = 1e-9;
+
+    public static final int MAX_ITERATIONS = 1000;
+
+    /** Suffix of the file with the saved scores of the documents. */
+    public static final String SUFFIX = ".ranks";
+
+    /** Nodes per task in an iteration. */
+    private static final int CHUNK = 1 << 14;
+
+    /** The PageRank of each document, by docID. */
+    private static volatile double[] scores = new double[0];
+
+
+    private LinkGraph graph;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double damping = DAMPING;
+    private double epsilon = EPSILON;
+    private int iterations;
+
+
+    public PageRank( LinkGraph graph ) {
+	this.graph = graph;
+    }
+
+
+    /**  Sets the number of threads to use */
+    public void setThreads( int threads ) {
+	this.threads = Math.max( 1, threads );
+    }
+
+    /**  Sets the convergence threshold */
+    public void setEpsilon( double epsilon ) {
+	this.epsilon = epsilon;
+    }
+
+    /**  Number of iterations of the last computation */
+    public int getIterations() {
+	return iterations;
+    }
+
+
+    /**
+     *  Returns the PageRank of a document, or 0 if it has none.
+     */
+    public static double getScore( int docID ) {
+	double[] s = scores;
+	return docID >= 0 && docID < s.length ? s[docID] : 0;
+    }
+
+    /**  Sets the PageRank of the documents, by docID */
+    public static void setScores( double[] newScores ) {
+	scores = newScores;
+	CombinedRanking.invalidate();
+    }
+
+
+    /**
+     *  Computes the PageRank of every node of the graph.
+     */
+    public double[] compute() {
+	final int n = graph.size();
+	final double[] rank = new double[n];
+	final double[] next = new double[n];
+	final double[] share = new double[n];
+	Arrays.fill( rank, 1.0 / n );
+	ExecutorService pool = Executors.newFixedThreadPool( threads );
+	try {
+	    double[] current = rank, updated = next;
+	    for ( iterations=1; iterations<=MAX_ITERATIONS; iterations++ ) {
+		final double[] from = current, to = updated;
+		// Each node's share of rank per link, and the rank of nodes without links
+		double dangling = sum( pool, n, new Range() {
+		    public double run( int start, int end ) {
+			double d = 0;
+			for ( int u=start; u<end; u++ ) {
+			    int out = graph.outDegree[u];
+			    if ( out > 0 ) {
+				share[u] = from[u] / out;
+			    }
+			    else {
+				d += from[u];
+			    }
+			}
+			return d;
+		    }
+		});
+		final double base = ( 1 - damping ) / n + damping * dangling / n;
+		double change = sum( pool, n, new Range() {
+		    public double run( int start, int end ) {
+			int[] inStart = graph.inStart, inLinks = graph.inLinks;
+			double c = 0;
+			for ( int v=start; v<end; v++ ) {
+			    double r = 0;
+			    for ( int i=inStart[v]; i<inStart[v+1]; i++ ) {
+				r += share[inLinks[i]];
+			    }
+			    r = base + damping * r;
+			    c += Math.abs( r - from[v] );
+			    to[v] = r;
+			}
+			return c;
+		    }
+		});
+		current = to;
+		updated = from;
+		if ( change < epsilon ) {
+		    break;
+		}
+	    }
+	    return current;
+	}
+	finally {
+	    pool.shutdown();
+	}
+    }
+
+
+    /**
+     *  Returns the scores of the documents, by docID, given the scores of
+     *  the nodes and the file names of the documents. A node belongs to a
+     *  document if it is named by the document's path, file name, or file
+     *  name without extension.
+     */
+    public double[] byDocument( double[] nodeScores, Map<String,String> docIDs ) {
+	HashMap<String,Integer> byName = new HashMap<String,Integer>();
+	int max = -1;
+	for ( Map.Entry<String,String> e : docIDs.entrySet() ) {
+	    int docID = Integer.parseInt( e.getKey() );
+	    if ( docID < 0 ) {
+		continue;
+	    }
+	    max = Math.max( max, docID );
+	    String path = e.getValue();
+	    String name = new File( path ).getName();
+	    int dot = name.lastIndexOf( '.' );
+	    byName.put( path, docID );
+	    byName.put( name, docID );
+	    if ( dot > 0 ) {
+		byName.put( name.substring( 0, dot ), docID );
+	    }
+	}
+	double[] result = new double[max+1];
+	for ( int v=0; v<graph.size(); v++ ) {
+	    Integer docID = byName.get( graph.getName( v ));
+	    if ( docID != null ) {
+		result[docID] = nodeScores[v];
+	    }
+	}
+	return result;
+    }
+
+
+    /**
+     *  Sets the scores of the documents from a links file. The scores
+     *  saved with the links file are used if they are newer than it and
+     *  were made for the same documents; otherwise they are computed and
+     *  saved.
+     */
+    public static void load( File linksFile, Map<String,String> docIDs, int threads ) {
+	long fingerprint;
+	synchronized ( docIDs ) {
+	    fingerprint = fingerprint( docIDs );
+	}
+	File saved = new File( linksFile.getPath() + SUFFIX );
+	if ( saved.lastModified() >= linksFile.lastModified() ) {
+	    try {
+		double[] s = read( saved, fingerprint );
+		if ( s != null ) {
+		    setScores( s );
+		    return;
+		}
+	    }
+	    catch ( IOException e ) {
+		e.printStackTrace();
+	    }
+	}
+	try {
+	    long start = System.currentTimeMillis();
+	    LinkGraph graph = LinkGraph.read( linksFile );
+	    PageRank pr = new PageRank( graph );
+	    if ( threads > 0 ) {
+		pr.setThreads( threads );
+	    }
+	    double[] s;
+	    synchronized ( docIDs ) {
+		s = pr.byDocument( pr.compute(), docIDs );
+	    }
+	    System.err.println( "PageRank of " + graph.size() + " nodes and " + graph.links() + " links in " +
+				pr.getIterations() + " iterations, " + ( System.currentTimeMillis() - start ) + " ms" );
+	    setScores( s );
+	    write( saved, s, fingerprint );
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	}
+    }
+
+
+    /**
+     *  Writes the scores of the documents, with the fingerprint of the
+     *  documents they belong to.
+     */
+    public static void write( File file, double[] s, long fingerprint ) throws IOException {
+	File tmp = new File( file.getPath() + ".tmp" );
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ));
+	try {
+	    out.writeLong( fingerprint );
+	    out.writeInt( s.length );
+	    for ( double x : s ) {
+		out.writeDouble( x );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	if ( !tmp.renameTo( file )) {
+	    file.delete();
+	    tmp.renameTo( file );
+	}
+    }
+
+
+    /**
+     *  Reads scores written by write(), or returns null if they were
+     *  written for other documents.
+     */
+    public static double[] read( File file, long fingerprint ) throws IOException {
+	DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ));
+	try {
+	    if ( in.readLong() != fingerprint ) {
+		return null;
+	    }
+	    double[] s = new double[in.readInt()];
+	    for ( int i=0; i<s.length; i++ ) {
+		s[i] = in.readDouble();
+	    }
+	    return s;
+	}
+	finally {
+	    in.close();
+	}
+    }
+
+
+    /**
+     *  A hash of the docIDs and names of the documents, independent of
+     *  their order.
+     */
+    static long fingerprint( Map<String,String> docIDs ) {
+	long h = docIDs.size();
+	for ( Map.Entry<String,String> e : docIDs.entrySet() ) {
+	    long x = e.getKey().hashCode() * 0x9E3779B97F4A7C15L + e.getValue().hashCode();
+	    x ^= x >>> 31;
+	    h += x * 0xBF58476D1CE4E5B9L;
+	}
+	return h;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**  Work on a range of nodes */
+    private interface Range {
+	double run( int start, int end );
+    }
+
+
+    /**
+     *  Runs @code{range} over the nodes 0..n-1 in chunks, in parallel,
+     *  and returns the sum of the results.
+     */
+    private static double sum( ExecutorService pool, int n, final Range range ) {
+	ArrayList<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+	for ( int start=0; start<n; start+=CHUNK ) {
+	    final int s = start, e = Math.min( n, start+CHUNK );
+	    tasks.add( new Callable<Double>() {
+		public Double call() {
+		    return range.run( s, e );
+		}
+	    });
+	}
+	double total = 0;
+	try {
+	    for ( Future<Double> f : pool.invokeAll( tasks )) {
+		total += f.get();
+	    }
+	}
+	catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	}
+	catch ( ExecutionException e ) {
+	    throw new RuntimeException( e.getCause() );
+	}
+	return total;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Computes the PageRank of a links file and prints the top nodes.
+     *
+     *  Usage: java ir.PageRank linksfile [-t threads] [-n top]
+     */
+    public static void main( String[] args ) throws IOException {
+	if ( args.length < 1 ) {
+	    System.err.println( "Usage: java ir.PageRank linksfile [-t threads] [-n top]" );
+	    return;
+	}
+	int threads = 0, top = 30;
+	for ( int i=1; i+1<args.length; i+=2 ) {
+	    if ( "-t".equals( args[i] )) {
+		threads = Integer.parseInt( args[i+1] );
+	    }
+	    else if ( "-n".equals( args[i] )) {
+		top = Integer.parseInt( args[i+1] );
+	    }
+	}
+	long start = System.currentTimeMillis();
+	LinkGraph graph = LinkGraph.read( new File( args[0] ));
+	long read = System.currentTimeMillis();
+	PageRank pr = new PageRank( graph );
+	if ( threads > 0 ) {
+	    pr.setThreads( threads );
+	}
+	final double[] r = pr.compute();
+	long done = System.currentTimeMillis();
+	System.err.println( graph.size() + " nodes, " + graph.links() + " links, read in " + ( read - start ) + " ms; " +
+			    pr.getIterations() + " iterations in " + ( done - read ) + " ms" );
+	// Select the top nodes
+	PriorityQueue<Integer> best = new PriorityQueue<Integer>( top+1, new Comparator<Integer>() {
+	    public int compare( Integer a, Integer b ) {
+		return Double.compare( r[a], r[b] );
+	    }
+	});
+	for ( int v=0; v<r.length; v++ ) {
+	    best.add( v );
+	    if ( best.size() > top ) {
+		best.poll();
+	    }
+	}
+	ArrayList<Integer> list = new ArrayList<Integer>( best );
+	Collections.sort( list, best.comparator() );
+	Collections.reverse( list );
+	for ( int v : list ) {
+	    System.out.println( graph.getName( v ) + " " + String.format( "%.5f", r[v] ));
+	}
+    }
+}
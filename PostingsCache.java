@@ -0,0 +1,287 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *   Keeps decoded postings lists of disk-based indexes in memory, so
+ *   that the lists of frequently searched terms are not read and
+ *   decoded again for every query. One cache is shared by all segments
+ *   and indexes, and holds at most a given number of bytes.
+ *
+ *   Eviction is segmented LRU, which favours terms that are looked up
+ *   often over terms that were only looked up once, however recently.
+ *   A new list enters a probationary segment. A list found again while
+ *   on probation moves to the protected segment, which takes up to
+ *   PROTECTED_SHARE of the cache. Lists pushed out of the protected
+ *   segment go back on probation, and lists pushed out of probation
+ *   are evicted. A burst of one-off terms, such as a wildcard
+ *   expansion, can therefore only displace other one-off terms.
+ *
+ *   In off-heap mode the lists are stored encoded (PostingsCodec) in
+ *   direct buffers, outside the Java heap, and decoded on every hit.
+ *   This still saves the disk reads and lookups, without the garbage
+ *   collector having to scan the cached lists.
+ *
+ *   Lists are cached per owner (a Segment, or a MegaIndex) and term.
+ *   An owner must remove the lists that change or that it no longer
+ *   has. Cached lists are shared and must not be modified.
+ */
+public class PostingsCache {
+
+    /** Default size of the shared cache, in bytes. */
+    public static final long DEFAULT_SIZE = 128L << 20;
+
+    /** Share of the cache for lists that have been found more than once. */
+    public static final double PROTECTED_SHARE = 0.8;
+
+    /** Bytes counted for a cache entry besides the list itself. */
+    private static final long ENTRY_OVERHEAD = 96;
+
+    /** The cache used by segments and indexes. */
+    private static volatile PostingsCache shared = new PostingsCache( DEFAULT_SIZE, false );
+
+
+    private long maxBytes;
+    private boolean offHeap;
+
+    /** Lists found once, least recently used first. */
+    private LinkedHashMap<Key,Entry> probation = new LinkedHashMap<Key,Entry>( 256, 0.75f, true );
+
+    /** Lists found more than once, least recently used first. */
+    private LinkedHashMap<Key,Entry> protectedLists = new LinkedHashMap<Key,Entry>( 256, 0.75f, true );
+
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+
+    /**
+     *  Creates a cache of at most @code{maxBytes} bytes (0 disables
+     *  it), which keeps the lists off the Java heap if @code{offHeap}.
+     */
+    public PostingsCache( long maxBytes, boolean offHeap ) {
+	this.maxBytes = maxBytes;
+	this.offHeap = offHeap;
+    }
+
+
+    /**  The cache shared by all segments and indexes */
+    public static PostingsCache getShared() {
+	return shared;
+    }
+
+    /**  Replaces the shared cache */
+    public static void setShared( PostingsCache cache ) {
+	shared = cache;
+    }
+
+
+    /**
+     *  Returns the cached postings of a term of @code{owner}, or null
+     *  if they are not in the cache.
+     */
+    public PostingsList get( Object owner, String term ) {
+	Key key = new Key( owner, term );
+	Entry e;
+	synchronized ( this ) {
+	    e = protectedLists.get( key );
+	    if ( e == null ) {
+		e = probation.remove( key );
+		if ( e != null ) {
+		    // Found twice: protect it
+		    probationBytes -= e.size;
+		    protectedLists.put( key, e );
+		    protectedBytes += e.size;
+		    evict();
+		}
+	    }
+	    if ( e == null ) {
+		misses++;
+		return null;
+	    }
+	    hits++;
+	}
+	return e.list != null ? e.list : PostingsCodec.decode( e.encoded.duplicate() );
+    }
+
+
+    /**
+     *  Adds the postings of a term of @code{owner} to the cache.
+     */
+    public void put( Object owner, String term, PostingsList list ) {
+	if ( list == null || maxBytes <= 0 ) {
+	    return;
+	}
+	Entry e;
+	if ( offHeap ) {
+	    byte[] bytes = PostingsCodec.encode( list );
+	    ByteBuffer buf = ByteBuffer.allocateDirect( bytes.length );
+	    buf.put( bytes );
+	    buf.flip();
+	    e = new Entry( null, buf, ENTRY_OVERHEAD + 2L*term.length() + bytes.length );
+	}
+	else {
+	    e = new Entry( list, null, ENTRY_OVERHEAD + 2L*term.length() + list.memoryUsage() );
+	}
+	if ( e.size > maxBytes - (long)( PROTECTED_SHARE * maxBytes )) {
+	    // Larger than the probationary segment
+	    return;
+	}
+	Key key = new Key( owner, term );
+	synchronized ( this ) {
+	    if ( protectedLists.containsKey( key ) || probation.containsKey( key )) {
+		return;
+	    }
+	    probation.put( key, e );
+	    probationBytes += e.size;
+	    evict();
+	}
+    }
+
+
+    /**
+     *  Removes the postings of a term of @code{owner}, which have changed.
+     */
+    public synchronized void remove( Object owner, String term ) {
+	Key key = new Key( owner, term );
+	Entry e = probation.remove( key );
+	if ( e != null ) {
+	    probationBytes -= e.size;
+	}
+	e = protectedLists.remove( key );
+	if ( e != null ) {
+	    protectedBytes -= e.size;
+	}
+    }
+
+
+    /**
+     *  Removes all postings of @code{owner}.
+     */
+    public synchronized void removeAll( Object owner ) {
+	probationBytes -= removeAll( probation, owner );
+	protectedBytes -= removeAll( protectedLists, owner );
+    }
+
+
+    /**
+     *  Empties the cache.
+     */
+    public synchronized void clear() {
+	probation.clear();
+	protectedLists.clear();
+	probationBytes = 0;
+	protectedBytes = 0;
+    }
+
+
+    /**  Number of lookups that found the postings in the cache */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /**  Number of lookups that did not */
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    /**  Approximate number of bytes of cached postings */
+    public synchronized long getBytes() {
+	return probationBytes + protectedBytes;
+    }
+
+
+    public synchronized String toString() {
+	long total = hits + misses;
+	return "PostingsCache: " + ( probation.size() + protectedLists.size() ) + " lists, " + getBytes()/1024 + " kB" +
+	    ( offHeap ? " off-heap, " : ", " ) + hits + " hits, " + misses + " misses" +
+	    ( total == 0 ? "" : String.format( " (%.1f%% hits)", 100.0 * hits / total ));
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Moves lists from the protected segment to probation, and evicts
+     *  lists from probation, until both are within their size.
+     */
+    private void evict() {
+	long maxProtected = (long)( PROTECTED_SHARE * maxBytes );
+	Iterator<Map.Entry<Key,Entry>> it = protectedLists.entrySet().iterator();
+	while ( protectedBytes > maxProtected && it.hasNext() ) {
+	    Map.Entry<Key,Entry> e = it.next();
+	    it.remove();
+	    protectedBytes -= e.getValue().size;
+	    probation.put( e.getKey(), e.getValue() );
+	    probationBytes += e.getValue().size;
+	}
+	Iterator<Entry> values = probation.values().iterator();
+	while ( probationBytes + protectedBytes > maxBytes && values.hasNext() ) {
+	    probationBytes -= values.next().size;
+	    values.remove();
+	}
+    }
+
+
+    private static long removeAll( LinkedHashMap<Key,Entry> map, Object owner ) {
+	long bytes = 0;
+	Iterator<Map.Entry<Key,Entry>> it = map.entrySet().iterator();
+	while ( it.hasNext() ) {
+	    Map.Entry<Key,Entry> e = it.next();
+	    if ( e.getKey().owner == owner ) {
+		bytes += e.getValue().size;
+		it.remove();
+	    }
+	}
+	return bytes;
+    }
+
+
+    /**  A term of an owner, which is compared by identity */
+    private static class Key {
+	final Object owner;
+	final String term;
+
+	Key( Object owner, String term ) {
+	    this.owner = owner;
+	    this.term = term;
+	}
+
+	public int hashCode() {
+	    return 31 * System.identityHashCode( owner ) + term.hashCode();
+	}
+
+	public boolean equals( Object o ) {
+	    if ( !( o instanceof Key )) {
+		return false;
+	    }
+	    Key k = (Key)o;
+	    return owner == k.owner && term.equals( k.term );
+	}
+    }
+
+
+    /**  A cached list, either decoded or encoded in a direct buffer */
+    private static class Entry {
+	final PostingsList list;
+	final ByteBuffer encoded;
+	final long size;
+
+	Entry( PostingsList list, ByteBuffer encoded, long size ) {
+	    this.list = list;
+	    this.encoded = encoded;
+	    this.size = size;
+	}
+    }
+}
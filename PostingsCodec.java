@@ -0,0 +1,140 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ *   Binary on-disk format for postings lists.
+ *
+ *   A list is written as the number of documents followed by, for each
+ *   document, the gap to the previous docID, the term frequency and the
+ *   gaps between consecutive positions. All numbers are variable-byte
+ *   encoded: seven bits per byte, high bit set on the last byte.
+ *
+ *   Gaps are computed with ordinary int arithmetic and written as unsigned
+ *   32-bit numbers, so negative docIDs (hash codes) survive the round trip.
+ */
+public class PostingsCodec {
+
+    private PostingsCodec() {
+    }
+
+
+    /**
+     *  Encodes the list into a new byte array. The list is sorted by
+     *  docID first if necessary.
+     */
+    public static byte[] encode( PostingsList list ) {
+	ByteArrayOutputStream out = new ByteArrayOutputStream( 4 + 3*list.size() );
+	try {
+	    encode( list, out );
+	}
+	catch ( IOException e ) {
+	    // Cannot happen for a ByteArrayOutputStream
+	    throw new RuntimeException( e );
+	}
+	return out.toByteArray();
+    }
+
+
+    /**
+     *  Writes the encoded list to @code{out}.
+     */
+    public static void encode( PostingsList list, OutputStream out ) throws IOException {
+	list.sortByDocID();
+	int n = list.size();
+	writeVByte( out, n );
+	int lastDocID = 0;
+	for ( int i=0; i<n; i++ ) {
+	    int docID = list.getDocID( i );
+	    writeVByte( out, docID - lastDocID );
+	    lastDocID = docID;
+	    int tf = list.getFrequency( i );
+	    writeVByte( out, tf );
+	    int lastOffset = 0;
+	    for ( int j=0; j<tf; j++ ) {
+		int offset = list.getOffset( i, j );
+		writeVByte( out, offset - lastOffset );
+		lastOffset = offset;
+	    }
+	}
+    }
+
+
+    /**
+     *  Decodes a list from the beginning of @code{buf}.
+     */
+    public static PostingsList decode( byte[] buf ) {
+	return decode( ByteBuffer.wrap( buf ));
+    }
+
+
+    /**
+     *  Decodes a list starting at the current position of @code{buf}.
+     *  On return the position is just after the encoded list.
+     */
+    public static PostingsList decode( ByteBuffer buf ) {
+	PostingsList list = new PostingsList();
+	int n = readVByte( buf );
+	int docID = 0;
+	for ( int i=0; i<n; i++ ) {
+	    docID += readVByte( buf );
+	    int tf = readVByte( buf );
+	    int offset = 0;
+	    for ( int j=0; j<tf; j++ ) {
+		offset += readVByte( buf );
+		list.add( docID, offset );
+	    }
+	}
+	return list;
+    }
+
+
+    /**
+     *  Returns the number of documents in the list starting at the
+     *  current position of @code{buf}, without moving the position.
+     */
+    public static int documentFrequency( ByteBuffer buf ) {
+	return readVByte( buf.duplicate() );
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Writes @code{v}, interpreted as an unsigned number, in one to
+     *  five bytes.
+     */
+    public static void writeVByte( OutputStream out, int v ) throws IOException {
+	while (( v & ~0x7F ) != 0 ) {
+	    out.write( v & 0x7F );
+	    v >>>= 7;
+	}
+	out.write( v | 0x80 );
+    }
+
+
+    /**
+     *  Reads a number written by writeVByte.
+     */
+    public static int readVByte( ByteBuffer buf ) {
+	int v = 0;
+	int shift = 0;
+	while ( true ) {
+	    int b = buf.get();
+	    v |= ( b & 0x7F ) << shift;
+	    if (( b & 0x80 ) != 0 ) {
+		return v;
+	    }
+	    shift += 7;
+	}
+    }
+}
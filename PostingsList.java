@@ -1,74 +1,495 @@
-/*  
- *   This file is part of the computer assignment for the
- *   Information Retrieval course at KTH.
- * 
- *   First version:  Johan Boye, 2010
- *   Second version: Johan Boye, 2012
- */  
-
-package ir;
-
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ArrayList;
-import java.io.Serializable;
-import ir.PostingsEntry;
-
-/**
- *   A list of postings for a given word.
- */
-public class PostingsList implements Serializable {
-
-	/** The postings list as a linked list. */
-	private LinkedList<PostingsEntry> list;
-	
-	public PostingsList() {
-		list = new LinkedList<PostingsEntry>();
-	}
-
-
-	/**  Number of postings in this list  */
-	public int size() {
-		return list.size();
-	}
-
-	/**  Returns the ith posting */
-	public PostingsEntry get( int i ) {
-		return list.get( i );
-	}
-
-	public void add(int docID, int offset) {
-	    for (PostingsEntry pe : list){
-		if (pe.docID == docID) {
-		    pe.offsets.add(offset);
-		    return;
-		}
-	    }
-	    ArrayList<Integer> offsets = new ArrayList<Integer>();
-	    offsets.add(offset);
-
-	    PostingsEntry pe = new PostingsEntry(docID,offsets);
-	    list.add(pe);
-	}
-
-    public void add(PostingsEntry pe) {
-        list.add(pe);
-    }
-
-    public void sortByDocID() {
-        Collections.sort(list,new Comparator<PostingsEntry>() {
-            @Override
-            public int compare(PostingsEntry postingsEntry, PostingsEntry postingsEntry2) {
-                if (postingsEntry.docID<postingsEntry2.docID) return -1;
-                else if (postingsEntry.docID == postingsEntry2.docID) return 0;
-                else return 1;
-            }
-        });
-    }
-
-    public Iterator<PostingsEntry> iterator(){
-        return list.iterator();
-    }
-}
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   First version:  Johan Boye, 2010
+ *   Second version: Johan Boye, 2012
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.NoSuchElementException;
+import java.io.Serializable;
+import ir.PostingsEntry;
+
+/**
+ *   A list of postings for a given word.
+ *
+ *   The postings are kept in parallel primitive arrays rather than as
+ *   PostingsEntry objects. Document i has identifier docIDs[i], and its
+ *   positions are offsets[start[i]] ... offsets[start[i+1]-1]. Since
+ *   documents are indexed one at a time, the document being indexed is
+ *   always the last one, so adding a token is an O(1) append.
+ */
+public class PostingsList implements Serializable {
+
+	/** Initial capacity of the document arrays. */
+	private static final int INITIAL_DOCS = 4;
+
+	/** Initial capacity of the offsets arena. */
+	private static final int INITIAL_OFFSETS = 8;
+
+	/** The document identifiers, in the order they were added. */
+	private int[] docIDs = new int[INITIAL_DOCS];
+
+	/**
+	 *  Start of each document's positions in @code{offsets}. The entry
+	 *  after the last document is @code{offsetCount}.
+	 */
+	private int[] start = new int[INITIAL_DOCS+1];
+
+	/** All positions of all documents, one document after the other. */
+	private int[] offsets = new int[INITIAL_OFFSETS];
+
+	/** Scores, only allocated when a score is set (ranked retrieval). */
+	private double[] scores;
+
+	/** Number of documents in the list. */
+	private int size = 0;
+
+	/** Number of positions used in @code{offsets}. */
+	private int offsetCount = 0;
+
+	/** @code{true} as long as the documents are in increasing docID order. */
+	private boolean sorted = true;
+
+	/**
+	 *  Cached upper bound on the score any document gets from this list
+	 *  in ranked retrieval, or 0 if not computed (see QueryEngine), and
+	 *  the version of the document table it was computed for.
+	 */
+	private double scoreBound = 0;
+	private int scoreBoundVersion;
+
+
+	public PostingsList() {
+	}
+
+
+	/**  Number of postings in this list  */
+	public int size() {
+		return size;
+	}
+
+	/**  Returns the ith posting */
+	public PostingsEntry get( int i ) {
+		if ( i < 0 || i >= size ) {
+			throw new IndexOutOfBoundsException( "Index: " + i + ", Size: " + size );
+		}
+		ArrayList<Integer> list = new ArrayList<Integer>( start[i+1]-start[i] );
+		for ( int j=start[i]; j<start[i+1]; j++ ) {
+			list.add( offsets[j] );
+		}
+		return new PostingsEntry( docIDs[i], getScore( i ), list );
+	}
+
+	/**  Returns the docID of the ith posting */
+	public int getDocID( int i ) {
+		return docIDs[i];
+	}
+
+	/**  Returns the number of occurrences in the ith posting */
+	public int getFrequency( int i ) {
+		return start[i+1]-start[i];
+	}
+
+	/**  Returns the jth position of the ith posting */
+	public int getOffset( int i, int j ) {
+		return offsets[start[i]+j];
+	}
+
+	/**  Returns the score of the ith posting */
+	public double getScore( int i ) {
+		return scores == null ? 0.0 : scores[i];
+	}
+
+	/**  Approximate number of bytes of memory used by the list */
+	public long memoryUsage() {
+		long bytes = 64 + 4L * ( docIDs.length + start.length + offsets.length );
+		return scores == null ? bytes : bytes + 8L * scores.length;
+	}
+
+	/**  Sets the score of the ith posting */
+	public void setScore( int i, double score ) {
+		if ( scores == null ) {
+			scores = new double[docIDs.length];
+		}
+		scores[i] = score;
+	}
+
+	/**
+	 *  Returns the index of the first posting at or after @code{from}
+	 *  whose docID is at least @code{target}, or size() if there is none.
+	 *  The list must be sorted. Uses galloping (exponential) search, so
+	 *  the cost is logarithmic in the distance skipped.
+	 */
+	public int advance( int from, int target ) {
+		if ( from >= size || docIDs[from] >= target ) {
+			return from;
+		}
+		// docIDs[lo] < target; double the step until we pass target
+		int lo = from;
+		int step = 1;
+		int hi = from + step;
+		while ( hi < size && docIDs[hi] < target ) {
+			lo = hi;
+			step <<= 1;
+			hi = from + step;
+		}
+		if ( hi >= size ) {
+			hi = size;
+		}
+		// Now docIDs[lo] < target <= docIDs[hi] (or hi == size)
+		while ( hi - lo > 1 ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( docIDs[mid] < target ) {
+				lo = mid;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return hi;
+	}
+
+	/**
+	 *  Returns the cached score bound, or 0 if there is none for the
+	 *  given version of the document table.
+	 */
+	public double getScoreBound( int version ) {
+		return version == scoreBoundVersion ? scoreBound : 0;
+	}
+
+	/**  Caches an upper bound on the score of a document */
+	public void setScoreBound( double bound, int version ) {
+		scoreBound = bound;
+		scoreBoundVersion = version;
+	}
+
+	/**
+	 *  Adds an occurrence of the term in document @code{docID}. Documents
+	 *  are normally added in increasing order, in which case this is an
+	 *  append. Otherwise the posting is inserted at its sorted position.
+	 */
+	public void add( int docID, int offset ) {
+		if ( size > 0 && docIDs[size-1] == docID ) {
+			appendOffset( offset );
+		}
+		else if ( size == 0 || ( sorted && docIDs[size-1] < docID )) {
+			appendDoc( docID );
+			appendOffset( offset );
+		}
+		else {
+			insert( docID, offset );
+		}
+	}
+
+	/**
+	 *  Appends a posting at the end of the list. Used when building
+	 *  result lists, which need not be sorted by docID.
+	 */
+	public void add( PostingsEntry pe ) {
+		if ( size > 0 && docIDs[size-1] >= pe.docID ) {
+			sorted = false;
+		}
+		appendDoc( pe.docID );
+		if ( pe.offsets != null ) {
+			for ( int offset : pe.offsets ) {
+				appendOffset( offset );
+			}
+		}
+		if ( pe.score != 0.0 ) {
+			setScore( size-1, pe.score );
+		}
+	}
+
+	/**
+	 *  Appends the ith posting of @code{other} at the end of the list.
+	 */
+	public void add( PostingsList other, int i ) {
+		if ( size > 0 && docIDs[size-1] >= other.docIDs[i] ) {
+			sorted = false;
+		}
+		appendDoc( other.docIDs[i] );
+		int n = other.start[i+1]-other.start[i];
+		ensureOffsetCapacity( offsetCount+n );
+		System.arraycopy( other.offsets, other.start[i], offsets, offsetCount, n );
+		offsetCount += n;
+		start[size] = offsetCount;
+		if ( other.scores != null ) {
+			setScore( size-1, other.scores[i] );
+		}
+	}
+
+	/**
+	 *  Merges two lists that are sorted by docID into a new sorted list.
+	 *  The positions of a document that occurs in both lists are merged.
+	 */
+	public static PostingsList merge( PostingsList a, PostingsList b ) {
+		a.sortByDocID();
+		b.sortByDocID();
+		PostingsList result = new PostingsList();
+		int i = 0, j = 0;
+		while ( i < a.size && j < b.size ) {
+			if ( a.docIDs[i] < b.docIDs[j] ) {
+				result.add( a, i++ );
+			}
+			else if ( a.docIDs[i] > b.docIDs[j] ) {
+				result.add( b, j++ );
+			}
+			else {
+				result.appendDoc( a.docIDs[i] );
+				int p = a.start[i], q = b.start[j];
+				while ( p < a.start[i+1] || q < b.start[j+1] ) {
+					if ( q == b.start[j+1] || ( p < a.start[i+1] && a.offsets[p] <= b.offsets[q] )) {
+						result.appendOffset( a.offsets[p++] );
+					}
+					else {
+						result.appendOffset( b.offsets[q++] );
+					}
+				}
+				i++;
+				j++;
+			}
+		}
+		while ( i < a.size ) {
+			result.add( a, i++ );
+		}
+		while ( j < b.size ) {
+			result.add( b, j++ );
+		}
+		return result;
+	}
+
+	/**
+	 *  Merges any number of lists into one sorted list, with a k-way
+	 *  merge over a heap of the lists' current docIDs. The positions of
+	 *  a document that occurs in several lists are merged.
+	 */
+	public static PostingsList union( List<PostingsList> lists ) {
+		if ( lists.size() == 1 ) {
+			return lists.get( 0 );
+		}
+		final PostingsList[] l = lists.toArray( new PostingsList[lists.size()] );
+		final int[] ptr = new int[l.length];
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>( Math.max( 1, l.length ), new Comparator<Integer>() {
+			public int compare( Integer a, Integer b ) {
+				int x = l[a].docIDs[ptr[a]], y = l[b].docIDs[ptr[b]];
+				return x < y ? -1 : ( x == y ? 0 : 1 );
+			}
+		});
+		for ( int k=0; k<l.length; k++ ) {
+			l[k].sortByDocID();
+			if ( l[k].size > 0 ) {
+				heap.add( k );
+			}
+		}
+		PostingsList result = new PostingsList();
+		boolean unsortedLast = false;
+		while ( !heap.isEmpty() ) {
+			int k = heap.poll();
+			PostingsList list = l[k];
+			int i = ptr[k];
+			if ( result.size > 0 && result.docIDs[result.size-1] == list.docIDs[i] ) {
+				for ( int j=list.start[i]; j<list.start[i+1]; j++ ) {
+					result.appendOffset( list.offsets[j] );
+				}
+				unsortedLast = true;
+			}
+			else {
+				if ( unsortedLast ) {
+					result.sortLastOffsets();
+					unsortedLast = false;
+				}
+				result.add( list, i );
+			}
+			if ( ++ptr[k] < list.size ) {
+				heap.add( k );
+			}
+		}
+		if ( unsortedLast ) {
+			result.sortLastOffsets();
+		}
+		return result;
+	}
+
+	/**
+	 *  Returns a copy of the list in which docID @code{from[i]} is
+	 *  replaced by @code{to[i]}, sorted by the new docIDs. @code{from}
+	 *  must be sorted; documents not in it are left out.
+	 */
+	public PostingsList renumber( int[] from, int[] to ) {
+		PostingsList result = new PostingsList();
+		for ( int i=0; i<size; i++ ) {
+			int k = Arrays.binarySearch( from, docIDs[i] );
+			if ( k < 0 ) {
+				continue;
+			}
+			if ( result.size > 0 && result.docIDs[result.size-1] >= to[k] ) {
+				result.sorted = false;
+			}
+			result.appendDoc( to[k] );
+			for ( int p=start[i]; p<start[i+1]; p++ ) {
+				result.appendOffset( offsets[p] );
+			}
+		}
+		result.sortByDocID();
+		return result;
+	}
+
+	/**
+	 *  Sorts the postings by docID. Lists built with add(docID,offset)
+	 *  are always sorted, so this is normally a no-op.
+	 */
+	public void sortByDocID() {
+		if ( sorted ) {
+			return;
+		}
+		Integer[] order = new Integer[size];
+		for ( int i=0; i<size; i++ ) {
+			order[i] = i;
+		}
+		Arrays.sort( order, new java.util.Comparator<Integer>() {
+			public int compare( Integer a, Integer b ) {
+				return docIDs[a] < docIDs[b] ? -1 : ( docIDs[a] == docIDs[b] ? 0 : 1 );
+			}
+		});
+		int[] newDocIDs = new int[docIDs.length];
+		int[] newStart = new int[start.length];
+		int[] newOffsets = new int[offsets.length];
+		double[] newScores = scores == null ? null : new double[scores.length];
+		int pos = 0;
+		for ( int i=0; i<size; i++ ) {
+			int k = order[i];
+			int n = start[k+1]-start[k];
+			newDocIDs[i] = docIDs[k];
+			newStart[i] = pos;
+			System.arraycopy( offsets, start[k], newOffsets, pos, n );
+			pos += n;
+			if ( newScores != null ) {
+				newScores[i] = scores[k];
+			}
+		}
+		newStart[size] = pos;
+		docIDs = newDocIDs;
+		start = newStart;
+		offsets = newOffsets;
+		scores = newScores;
+		sorted = true;
+	}
+
+	/**  @code{true} if the postings are in increasing docID order */
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	public Iterator<PostingsEntry> iterator() {
+		return new Iterator<PostingsEntry>() {
+			int i = 0;
+			public boolean hasNext() {
+				return i < size;
+			}
+			public PostingsEntry next() {
+				if ( i >= size ) {
+					throw new NoSuchElementException();
+				}
+				return get( i++ );
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	private void appendDoc( int docID ) {
+		scoreBound = 0;
+		if ( size == docIDs.length ) {
+			grow( size+1 );
+		}
+		docIDs[size] = docID;
+		start[size] = offsetCount;
+		size++;
+		start[size] = offsetCount;
+	}
+
+	private void sortLastOffsets() {
+		Arrays.sort( offsets, start[size-1], offsetCount );
+	}
+
+	private void appendOffset( int offset ) {
+		scoreBound = 0;
+		ensureOffsetCapacity( offsetCount+1 );
+		offsets[offsetCount++] = offset;
+		start[size] = offsetCount;
+	}
+
+	/**
+	 *  Slow path for documents that arrive out of order.
+	 */
+	private void insert( int docID, int offset ) {
+		scoreBound = 0;
+		int i = sorted ? Arrays.binarySearch( docIDs, 0, size, docID ) : linearSearch( docID );
+		if ( i < 0 ) {
+			// New document in the middle of the list
+			i = -i-1;
+			if ( !sorted ) {
+				i = size;
+			}
+			if ( size == docIDs.length ) {
+				grow( size+1 );
+			}
+			System.arraycopy( docIDs, i, docIDs, i+1, size-i );
+			System.arraycopy( start, i, start, i+1, size+1-i );
+			if ( scores != null ) {
+				System.arraycopy( scores, i, scores, i+1, size-i );
+				scores[i] = 0.0;
+			}
+			docIDs[i] = docID;
+			size++;
+		}
+		// Make room for one position at the end of document i
+		int pos = start[i+1];
+		ensureOffsetCapacity( offsetCount+1 );
+		System.arraycopy( offsets, pos, offsets, pos+1, offsetCount-pos );
+		offsets[pos] = offset;
+		offsetCount++;
+		for ( int k=i+1; k<=size; k++ ) {
+			start[k]++;
+		}
+	}
+
+	private int linearSearch( int docID ) {
+		for ( int i=0; i<size; i++ ) {
+			if ( docIDs[i] == docID ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void grow( int minCapacity ) {
+		int capacity = Math.max( minCapacity, docIDs.length + ( docIDs.length >> 1 ) + 1 );
+		docIDs = Arrays.copyOf( docIDs, capacity );
+		start = Arrays.copyOf( start, capacity+1 );
+		if ( scores != null ) {
+			scores = Arrays.copyOf( scores, capacity );
+		}
+	}
+
+	private void ensureOffsetCapacity( int minCapacity ) {
+		if ( minCapacity > offsets.length ) {
+			int capacity = Math.max( minCapacity, offsets.length + ( offsets.length >> 1 ) + 1 );
+			offsets = Arrays.copyOf( offsets, capacity );
+		}
+	}
+}
@@ -1,65 +1,272 @@
-/*  
- *   This file is part of the computer assignment for the
- *   Information Retrieval course at KTH.
- * 
- *   First version:  Hedvig Kjellström, 2012
- */  
-
-package ir;
-
-import java.util.LinkedList;
-import java.util.StringTokenizer;
-
-public class Query {
-    
-    public LinkedList<String> terms = new LinkedList<String>();
-    public LinkedList<Double> weights = new LinkedList<Double>();
-
-    /**
-     *  Creates a new empty Query 
-     */
-    public Query() {
-	}
-	
-    /**
-     *  Creates a new Query from a string of words
-     */
-    public Query( String queryString  ) {
-		StringTokenizer tok = new StringTokenizer( queryString );
-		while ( tok.hasMoreTokens() ) {
-			terms.add( tok.nextToken() );
-			weights.add( new Double(1) );
-		}    
-	}
-	
-    /**
-     *  Returns the number of terms
-     */
-    public int size() {
-		return terms.size();
-	}
-	
-    /**
-     *  Returns a shallow copy of the Query
-     */
-    public Query copy() {
-		Query queryCopy = new Query();
-		queryCopy.terms = (LinkedList<String>) terms.clone();
-		queryCopy.weights = (LinkedList<Double>) weights.clone();
-		return queryCopy;
-	}
-	
-    /**
-     *  Expands the Query using Relevance Feedback
-     */
-    public void relevanceFeedback( PostingsList results, boolean[] docIsRelevant, Indexer indexer ) {
-		// results contain the ranked list from the current search
-		// docIsRelevant contains the users feedback on which of the 10 first hits are relevant
-		
-		//
-		//  YOUR CODE HERE
-		//
-    }
-}
-
-    
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   First version:  Hedvig Kjellström, 2012
+ */  
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+public class Query {
+    
+    public LinkedList<String> terms = new LinkedList<String>();
+    public LinkedList<Double> weights = new LinkedList<Double>();
+
+    /**
+     *  For proximity queries ("a NEAR/3 b"), the maximum distance
+     *  between consecutive terms; 0 for ordinary queries.
+     */
+    public int proximity = 0;
+
+    /**
+     *  For ranked queries, the number of documents to return.
+     */
+    public int k = QueryEngine.TOP_K;
+
+    /** Weight of the original query in relevance feedback. */
+    public static final double ALPHA = 1.0;
+
+    /** Weight of the relevant documents in relevance feedback. */
+    public static final double BETA = 0.75;
+
+    /** Largest number of terms of a query expanded by relevance feedback. */
+    public static final int MAX_TERMS = 30;
+
+    /** Number of terms, the most frequent, taken from each relevant document. */
+    public static final int TERMS_PER_DOCUMENT = 500;
+
+    /**
+     *  Creates a new empty Query 
+     */
+    public Query() {
+	}
+	
+    /**
+     *  Creates a new Query from a string of words. The words are
+     *  normalized like the indexed tokens. An operator NEAR/k makes
+     *  this a proximity query. Words with wildcards ('*', '?') or a
+     *  fuzzy marker ('~', '~2') are kept whole, and are expanded by
+     *  TermExpander when the index is searched.
+     */
+    public Query( String queryString  ) {
+		StringTokenizer tok = new StringTokenizer( queryString );
+		while ( tok.hasMoreTokens() ) {
+			String word = tok.nextToken();
+			if ( word.matches( "NEAR/[0-9]+" )) {
+				proximity = Math.max( proximity, Integer.parseInt( word.substring( 5 )));
+				continue;
+			}
+			if ( TermExpander.isPattern( word )) {
+				String pattern = TermExpander.normalize( word );
+				if ( pattern.length() > 0 ) {
+					terms.add( pattern );
+					weights.add( 1.0 );
+				}
+				continue;
+			}
+			StringTokenizer parts = new StringTokenizer( SimpleTokenizer.normalize( word ).replace( "#", "" ));
+			while ( parts.hasMoreTokens() ) {
+				terms.add( parts.nextToken() );
+				weights.add( 1.0 );
+			}
+		}    
+	}
+	
+    /**
+     *  Returns the number of terms
+     */
+    public int size() {
+		return terms.size();
+	}
+	
+    /**
+     *  Returns a shallow copy of the Query
+     */
+    public Query copy() {
+		Query queryCopy = new Query();
+		queryCopy.terms = (LinkedList<String>) terms.clone();
+		queryCopy.weights = (LinkedList<Double>) weights.clone();
+		queryCopy.proximity = proximity;
+		queryCopy.k = k;
+		return queryCopy;
+	}
+	
+    /**
+     *  Expands the Query using Relevance Feedback (Rocchio): the new
+     *  query vector is
+     *
+     *     ALPHA * q / |q|  +  BETA * centroid of the relevant documents
+     *
+     *  in tf-idf space, where each document vector is divided by its
+     *  norm. The documents' term vectors come from the forward index,
+     *  and each document only contributes its TERMS_PER_DOCUMENT most
+     *  frequent terms, so the cost is bounded for long documents. Most
+     *  of the time goes to looking up the term vectors and the idfs of
+     *  their terms, which is done in the calling thread since an index
+     *  need not allow concurrent lookups. The new query keeps its
+     *  MAX_TERMS heaviest terms.
+     *
+     *  The weights are stored divided by the terms' idf, since ranked
+     *  retrieval multiplies the weight of a term by its idf squared.
+     */
+    public void relevanceFeedback( PostingsList results, boolean[] docIsRelevant, Indexer indexer ) {
+		// results contain the ranked list from the current search
+		// docIsRelevant contains the users feedback on which of the 10 first hits are relevant
+		ArrayList<Integer> relevant = new ArrayList<Integer>();
+		for ( int i=0; i<docIsRelevant.length && i<results.size(); i++ ) {
+			if ( docIsRelevant[i] ) {
+				relevant.add( results.getDocID( i ));
+			}
+		}
+		if ( relevant.isEmpty() ) {
+			return;
+		}
+		Index index = indexer.index;
+
+		// The centroid of the relevant documents
+		HashMap<String,Double> idfs = new HashMap<String,Double>();
+		HashMap<String,Double> centroid = new HashMap<String,Double>();
+		for ( int docID : relevant ) {
+			ForwardIndex.Vector v = indexer.termVector( docID );
+			if ( v == null ) {
+				continue;
+			}
+			int cutoff = cutoff( v );
+			for ( int j=0; j<v.size; j++ ) {
+				if ( v.frequencies[j] >= cutoff ) {
+					idf( Index.forwardIndex.term( v.termIDs[j] ), index, idfs );
+				}
+			}
+			for ( Map.Entry<String,Double> e : documentVector( docID, v, cutoff, idfs ).entrySet() ) {
+				Double w = centroid.get( e.getKey() );
+				centroid.put( e.getKey(), ( w == null ? 0 : w ) + e.getValue() / relevant.size() );
+			}
+		}
+
+		// The original query, normalized. Patterns are kept as they are.
+		LinkedHashMap<String,Double> original = new LinkedHashMap<String,Double>();
+		LinkedHashMap<String,Double> patterns = new LinkedHashMap<String,Double>();
+		Iterator<Double> weightIt = weights.iterator();
+		for ( String term : terms ) {
+			double w = weightIt.hasNext() ? weightIt.next() : 1.0;
+			LinkedHashMap<String,Double> map = TermExpander.isPattern( term ) ? patterns : original;
+			Double old = map.get( term );
+			map.put( term, ( old == null ? 0 : old ) + w );
+		}
+		double length = 0;
+		for ( Map.Entry<String,Double> e : original.entrySet() ) {
+			double q = e.getValue() * idf( e.getKey(), index, idfs );
+			length += q*q;
+		}
+		length = Math.sqrt( length );
+		HashMap<String,Double> combined = new HashMap<String,Double>();
+		for ( Map.Entry<String,Double> e : centroid.entrySet() ) {
+			combined.put( e.getKey(), BETA * e.getValue() );
+		}
+		for ( Map.Entry<String,Double> e : original.entrySet() ) {
+			double q = length > 0 ? ALPHA * e.getValue() * idf( e.getKey(), index, idfs ) / length : 0;
+			Double c = combined.get( e.getKey() );
+			combined.put( e.getKey(), ( c == null ? 0 : c ) + q );
+		}
+
+		// Keep the heaviest terms
+		ArrayList<Map.Entry<String,Double>> sorted = new ArrayList<Map.Entry<String,Double>>( combined.entrySet() );
+		Collections.sort( sorted, new Comparator<Map.Entry<String,Double>>() {
+			public int compare( Map.Entry<String,Double> a, Map.Entry<String,Double> b ) {
+				return Double.compare( b.getValue(), a.getValue() );
+			}
+		});
+		terms = new LinkedList<String>();
+		weights = new LinkedList<Double>();
+		for ( Map.Entry<String,Double> e : patterns.entrySet() ) {
+			terms.add( e.getKey() );
+			weights.add( ALPHA * e.getValue() );
+		}
+		for ( Map.Entry<String,Double> e : sorted ) {
+			if ( terms.size() >= MAX_TERMS || e.getValue() <= 0 ) {
+				break;
+			}
+			double idf = idf( e.getKey(), index, idfs );
+			if ( idf > 0 ) {
+				terms.add( e.getKey() );
+				weights.add( e.getValue() / idf );
+			}
+		}
+    }
+
+
+    /**
+     *  Returns the smallest frequency that is among the
+     *  TERMS_PER_DOCUMENT most frequent terms of a document.
+     */
+    private static int cutoff( ForwardIndex.Vector v ) {
+		if ( v.size <= TERMS_PER_DOCUMENT ) {
+			return 0;
+		}
+		int[] f = Arrays.copyOf( v.frequencies, v.size );
+		Arrays.sort( f );
+		return f[v.size - TERMS_PER_DOCUMENT];
+	}
+
+
+    /**
+     *  Returns the tf-idf vector of a document, divided by its norm,
+     *  restricted to its TERMS_PER_DOCUMENT most frequent terms (those
+     *  from the frequency @code{cutoff} on). @code{idfs} must hold the
+     *  idfs of those terms.
+     */
+    private static HashMap<String,Double> documentVector( int docID, ForwardIndex.Vector v, int cutoff, HashMap<String,Double> idfs ) {
+		HashMap<String,Double> vector = new HashMap<String,Double>();
+		double norm = Index.docTable.getNorm( docID );
+		double squares = 0;
+		// First the terms above the cutoff, then as many at it as fit
+		for ( int pass=0; pass<2; pass++ ) {
+			for ( int i=0; i<v.size && vector.size()<TERMS_PER_DOCUMENT; i++ ) {
+				if ( pass == 0 ? v.frequencies[i] > cutoff : v.frequencies[i] == cutoff ) {
+					String term = Index.forwardIndex.term( v.termIDs[i] );
+					double w = v.frequencies[i] * idfs.get( term );
+					vector.put( term, w );
+					squares += w*w;
+				}
+			}
+		}
+		if ( norm <= 0 ) {
+			// No norms computed: use the norm of the terms taken
+			norm = Math.sqrt( squares );
+		}
+		if ( norm > 0 ) {
+			for ( Map.Entry<String,Double> e : vector.entrySet() ) {
+				e.setValue( e.getValue() / norm );
+			}
+		}
+		return vector;
+	}
+
+
+    /**
+     *  Returns the idf of a term, from @code{idfs} if it has been
+     *  looked up before. The document frequency is read without
+     *  decoding the postings.
+     */
+    private static double idf( String term, Index index, HashMap<String,Double> idfs ) {
+		Double idf = idfs.get( term );
+		if ( idf == null ) {
+			int df = index.documentFrequency( term );
+			int n = Index.docTable.count();
+			idf = df == 0 ? 0 : Math.log( (double)Math.max( n, df ) / df );
+			idfs.put( term, idf );
+		}
+		return idf;
+	}
+}
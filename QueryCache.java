@@ -0,0 +1,184 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ *   Remembers the results of recent searches, so that a repeated query
+ *   is answered without looking at the index.
+ *
+ *   Results are keyed by the normalized terms of the query, their
+ *   weights, the proximity and number of results asked for, and the
+ *   query and ranking types. Results ranked by PageRank or by the blend
+ *   are keyed by the generation of CombinedRanking as well, so they
+ *   are not found once the PageRank or the weights change. The cache holds at most a given number of
+ *   bytes of results, evicting the least recently used first.
+ *
+ *   Whatever changes the index must call invalidate(). A search that
+ *   was running when the cache was invalidated does not store its
+ *   result, since it may have seen the index before the change. Cached
+ *   results are shared and must not be modified.
+ */
+public class QueryCache {
+
+    /** Default size of the cache, in bytes. */
+    public static final long DEFAULT_SIZE = 64L << 20;
+
+    /** Bytes counted for a cache entry besides the result itself. */
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private Index index;
+
+    /** Largest number of bytes of results to keep. */
+    private long maxBytes;
+
+    private long bytes = 0;
+
+    /** Incremented by invalidate(). */
+    private long generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /** Cached results, least recently used first. */
+    private LinkedHashMap<String,Entry> results = new LinkedHashMap<String,Entry>( 256, 0.75f, true );
+
+    /**
+     *  A cached result, with its size when it was cached. (A result
+     *  can be a list of the index, which grows until invalidate().)
+     */
+    private static class Entry {
+	final PostingsList result;
+	final long size;
+
+	Entry( PostingsList result, long size ) {
+	    this.result = result;
+	    this.size = size;
+	}
+    }
+
+
+    public QueryCache( Index index, long maxBytes ) {
+	this.index = index;
+	this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     *  Returns the result of Index.search(), from the cache if the same
+     *  query has been searched since the last change of the index.
+     */
+    public PostingsList search( Query query, int queryType, int rankingType ) {
+	String key = key( query, queryType, rankingType );
+	long gen;
+	synchronized ( this ) {
+	    Entry e = results.get( key );
+	    if ( e != null ) {
+		hits++;
+		return e.result;
+	    }
+	    misses++;
+	    gen = generation;
+	}
+	PostingsList result = index.search( query, queryType, rankingType );
+	synchronized ( this ) {
+	    if ( gen == generation && !results.containsKey( key )) {
+		long size = size( key, result );
+		if ( size <= maxBytes ) {
+		    results.put( key, new Entry( result, size ));
+		    bytes += size;
+		    evict();
+		}
+	    }
+	}
+	return result;
+    }
+
+
+    /**
+     *  Empties the cache. Called whenever the index changes.
+     */
+    public synchronized void invalidate() {
+	generation++;
+	results.clear();
+	bytes = 0;
+    }
+
+
+    /**  Number of searches answered from the cache */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /**  Number of searches that had to look in the index */
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    /**  Number of cached results */
+    public synchronized int size() {
+	return results.size();
+    }
+
+    /**  Approximate number of bytes of cached results */
+    public synchronized long getBytes() {
+	return bytes;
+    }
+
+
+    public synchronized String toString() {
+	long total = hits + misses;
+	return "QueryCache: " + results.size() + " results, " + bytes/1024 + " kB, " + hits + " hits, " + misses + " misses" +
+	    ( total == 0 ? "" : String.format( " (%.1f%% hits)", 100.0 * hits / total ));
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  The cache key of a query: everything that affects its result.
+     */
+    static String key( Query query, int queryType, int rankingType ) {
+	StringBuilder sb = new StringBuilder();
+	sb.append( queryType ).append( ' ' ).append( rankingType ).append( ' ' ).append( query.proximity );
+	if ( queryType == Index.RANKED_QUERY ) {
+	    sb.append( ' ' ).append( query.k );
+	    if ( rankingType != Index.TF_IDF ) {
+		sb.append( ' ' ).append( CombinedRanking.generation() );
+	    }
+	}
+	Iterator<Double> weights = query.weights.iterator();
+	for ( String term : query.terms ) {
+	    // Terms never contain spaces
+	    sb.append( ' ' ).append( term );
+	    if ( queryType == Index.RANKED_QUERY && weights.hasNext() ) {
+		sb.append( '^' ).append( weights.next() );
+	    }
+	}
+	return sb.toString();
+    }
+
+
+    private static long size( String key, PostingsList result ) {
+	return ENTRY_OVERHEAD + 2L * key.length() + ( result == null ? 0 : result.memoryUsage() );
+    }
+
+
+    /**
+     *  Evicts the least recently used results until the cache is within
+     *  its size.
+     */
+    private void evict() {
+	Iterator<Entry> it = results.values().iterator();
+	while ( bytes > maxBytes && it.hasNext() ) {
+	    bytes -= it.next().size;
+	    it.remove();
+	}
+    }
+}
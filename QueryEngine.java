@@ -0,0 +1,394 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ *   Evaluates queries over the postings lists of the query terms. The
+ *   engine only reads the lists, so it works the same for every Index
+ *   implementation and can be used by several threads at once.
+ */
+public class QueryEngine {
+
+    /** Number of documents returned by ranked retrieval by default. */
+    public static final int TOP_K = 100;
+
+
+    private QueryEngine() {
+    }
+
+
+    /**
+     *  Evaluates a query, given the postings of its terms in query order.
+     *  A null list means that the term is not in the index.
+     */
+    public static PostingsList search( ArrayList<PostingsList> postingsLists, Query query, int queryType, int rankingType ) {
+        if (postingsLists.isEmpty()) return null;
+        if (queryType != Index.RANKED_QUERY && postingsLists.contains(null)) return new PostingsList();
+        if (queryType == Index.PHRASE_QUERY || (queryType == Index.INTERSECTION_QUERY && query.proximity > 0)) {
+            if (postingsLists.size() > 1) {
+                int distance = query.proximity > 0 ? query.proximity : 1;
+                return phrase(postingsLists.toArray(new PostingsList[0]), distance);
+            }
+            return postingsLists.get(0);
+        } else if (queryType == Index.INTERSECTION_QUERY) {
+            if (postingsLists.size() > 1) return intersection(postingsLists.toArray(new PostingsList[0]));
+            return postingsLists.get(0);
+        }
+        if (rankingType == Index.PAGERANK) return byPageRank(postingsLists, query.k);
+        if (rankingType == Index.COMBINATION) {
+            PostingsList candidates = ranked(postingsLists, query.weights, CombinedRanking.candidates(query.k));
+            return CombinedRanking.rerank(candidates, query.k);
+        }
+        return ranked(postingsLists, query.weights, query.k);
+    }
+
+
+    /**
+     *  Returns the documents that occur in all lists.
+     *
+     *  The lists are processed from the shortest to the longest. Each
+     *  candidate document from the shortest list is looked up in the
+     *  longer lists with galloping search, and a miss makes the shortest
+     *  list jump ahead to the document that was found instead. The cost
+     *  is therefore proportional to the length of the shortest list
+     *  times the logarithm of the gaps skipped in the others.
+     */
+    public static PostingsList intersection( PostingsList[] lists ) {
+        lists = lists.clone();
+        for (PostingsList list : lists) list.sortByDocID();
+        Arrays.sort(lists, new Comparator<PostingsList>() {
+            public int compare(PostingsList a, PostingsList b) {
+                return a.size() - b.size();
+            }
+        });
+        PostingsList result = new PostingsList();
+        PostingsList rarest = lists[0];
+        int[] pos = new int[lists.length];
+        int i = 0;
+        outer:
+        while (i < rarest.size()) {
+            int target = rarest.getDocID(i);
+            for (int k = 1; k < lists.length; k++) {
+                pos[k] = lists[k].advance(pos[k], target);
+                if (pos[k] == lists[k].size()) break outer;
+                int docID = lists[k].getDocID(pos[k]);
+                if (docID != target) {
+                    // Not in list k; continue from the first candidate >= docID
+                    i = rarest.advance(i + 1, docID);
+                    continue outer;
+                }
+            }
+            result.add(rarest, i++);
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the documents in which the terms occur as a phrase: each
+     *  term at most @code{distance} positions after the previous one
+     *  (1 for an exact phrase). The result holds, for each matching
+     *  document, the positions where a match starts.
+     *
+     *  Candidate documents are found as in intersection(). Within a
+     *  document the sorted position arrays of all terms are merged in one
+     *  linear pass, so no intermediate lists are built.
+     */
+    public static PostingsList phrase( PostingsList[] lists, int distance ) {
+        int n = lists.length;
+        int rarest = 0;
+        for (int k = 0; k < n; k++) {
+            lists[k].sortByDocID();
+            if (lists[k].size() < lists[rarest].size()) rarest = k;
+        }
+        PostingsList result = new PostingsList();
+        PostingsList r = lists[rarest];
+        int[] pos = new int[n];
+        int[] ptr = new int[n];
+        int i = 0;
+        outer:
+        while (i < r.size()) {
+            int target = r.getDocID(i);
+            for (int k = 0; k < n; k++) {
+                if (k == rarest) continue;
+                pos[k] = lists[k].advance(pos[k], target);
+                if (pos[k] == lists[k].size()) break outer;
+                int docID = lists[k].getDocID(pos[k]);
+                if (docID != target) {
+                    i = r.advance(i + 1, docID);
+                    continue outer;
+                }
+            }
+            pos[rarest] = i++;
+            if (distance <= 1) {
+                matchExact(lists, pos, ptr, result);
+            } else {
+                matchNear(lists, pos, distance, result);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     *  Finds the exact phrase matches in one document. Term k must occur
+     *  at position start+k. All position pointers only move forward.
+     */
+    private static void matchExact(PostingsList[] lists, int[] pos, int[] ptr, PostingsList result) {
+        int n = lists.length;
+        PostingsList first = lists[0];
+        int tf0 = first.getFrequency(pos[0]);
+        int docID = first.getDocID(pos[0]);
+        Arrays.fill(ptr, 0);
+        int j = 0;
+        outer:
+        while (j < tf0) {
+            int start = first.getOffset(pos[0], j);
+            for (int k = 1; k < n; k++) {
+                int wanted = start + k;
+                int tf = lists[k].getFrequency(pos[k]);
+                while (ptr[k] < tf && lists[k].getOffset(pos[k], ptr[k]) < wanted) ptr[k]++;
+                if (ptr[k] == tf) return;
+                int offset = lists[k].getOffset(pos[k], ptr[k]);
+                if (offset != wanted) {
+                    // No match can start before offset-k
+                    while (j < tf0 && first.getOffset(pos[0], j) < offset - k) j++;
+                    continue outer;
+                }
+            }
+            result.add(docID, start);
+            j++;
+        }
+    }
+
+
+    /**
+     *  Finds the proximity matches in one document, where each term
+     *  must follow the previous one within @code{distance} positions.
+     */
+    private static void matchNear(PostingsList[] lists, int[] pos, int distance, PostingsList result) {
+        PostingsList first = lists[0];
+        int tf0 = first.getFrequency(pos[0]);
+        for (int j = 0; j < tf0; j++) {
+            int start = first.getOffset(pos[0], j);
+            if (follows(lists, pos, 1, start, distance)) {
+                result.add(first.getDocID(pos[0]), start);
+            }
+        }
+    }
+
+    /**
+     *  @code{true} if terms k, k+1, ... can be placed after position
+     *  @code{previous} within the distance limit.
+     */
+    private static boolean follows(PostingsList[] lists, int[] pos, int k, int previous, int distance) {
+        if (k == lists.length) return true;
+        PostingsList list = lists[k];
+        int tf = list.getFrequency(pos[k]);
+        for (int j = 0; j < tf; j++) {
+            int offset = list.getOffset(pos[k], j);
+            if (offset <= previous) continue;
+            if (offset > previous + distance) return false;
+            if (follows(lists, pos, k + 1, offset, distance)) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     *  Returns the @code{k} documents with the highest tf-idf scores,
+     *  best first. A document scores by the cosine similarity of its
+     *  tf-idf vector with the query,
+     *
+     *     sum over query terms t of  weight(t) * idf(t)^2 * tf(t,d) / norm(d)
+     *
+     *  where the norms are precomputed in the document table (see
+     *  Indexer.computeNorms). Documents without a norm are normalized by
+     *  their number of tokens instead.
+     *
+     *  Documents are evaluated one at a time with the WAND algorithm. Each
+     *  term has an upper bound on what it can add to a score. The cursors
+     *  are kept ordered by their current docID, and only a document where
+     *  the bounds of the terms reaching it add up to more than the k-th
+     *  best score so far (the threshold) is scored. All cursors before it
+     *  jump straight to that document, so most postings of common terms
+     *  are skipped once the threshold has risen. The top k are kept in a
+     *  bounded min-heap.
+     */
+    public static PostingsList ranked( List<PostingsList> postingsLists, List<Double> weights, int k ) {
+        int n = Index.docTable.count();
+        ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+        for (int t = 0; t < postingsLists.size(); t++) {
+            PostingsList list = postingsLists.get(t);
+            if (list == null || list.size() == 0) continue;
+            double idf = Math.log((double) Math.max(n, list.size()) / list.size());
+            double weight = (t < weights.size() ? weights.get(t) : 1.0) * idf * idf;
+            if (weight <= 0) continue;
+            cursors.add(new Cursor(list, weight, weight * scoreBound(list)));
+        }
+        Cursor[] c = cursors.toArray(new Cursor[0]);
+        PriorityQueue<PostingsEntry> top = new PriorityQueue<PostingsEntry>(k + 1, Collections.reverseOrder());
+        double threshold = 0;
+        while (true) {
+            sortByDocID(c);
+            // Find the pivot: the first cursor at which the bounds add up
+            // to more than the threshold
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < c.length && !c[i].done(); i++) {
+                bound += c[i].bound;
+                if (bound > threshold || top.size() < k) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) break;
+            int pivotDoc = c[pivot].doc();
+            if (c[0].doc() == pivotDoc) {
+                // All cursors up to the pivot are on the document: score it
+                double score = 0;
+                double length = normalizer(pivotDoc);
+                for (int i = 0; i < c.length && !c[i].done() && c[i].doc() == pivotDoc; i++) {
+                    score += c[i].weight * c[i].list.getFrequency(c[i].pos) / length;
+                    c[i].pos++;
+                }
+                if (top.size() < k || score > threshold) {
+                    top.add(new PostingsEntry(pivotDoc, score, null));
+                    if (top.size() > k) top.poll();
+                    if (top.size() == k) threshold = top.peek().score;
+                }
+            } else {
+                // Documents before the pivot cannot make it to the top k
+                for (int i = 0; i < pivot; i++) {
+                    c[i].pos = c[i].list.advance(c[i].pos, pivotDoc);
+                }
+            }
+        }
+        PostingsEntry[] best = top.toArray(new PostingsEntry[0]);
+        Arrays.sort(best);
+        PostingsList result = new PostingsList();
+        for (PostingsEntry pe : best) result.add(pe);
+        return result;
+    }
+
+
+    /**
+     *  Returns the @code{k} documents containing any of the terms that
+     *  have the highest PageRank, best first. Every posting is looked at
+     *  once, and the score of a document is an array lookup, so only
+     *  documents that beat the current k-th best need any more work.
+     */
+    public static PostingsList byPageRank( List<PostingsList> postingsLists, int k ) {
+        PriorityQueue<PostingsEntry> top = new PriorityQueue<PostingsEntry>(k + 1, Collections.reverseOrder());
+        // Only documents that reach the top are remembered
+        HashSet<Integer> seen = new HashSet<Integer>();
+        double threshold = -1;
+        for (PostingsList list : postingsLists) {
+            if (list == null) continue;
+            for (int i = 0; i < list.size(); i++) {
+                int docID = list.getDocID(i);
+                double score = PageRank.getScore(docID);
+                if (top.size() == k && score <= threshold) continue;
+                if (!seen.add(docID)) continue;
+                top.add(new PostingsEntry(docID, score, null));
+                if (top.size() > k) top.poll();
+                if (top.size() == k) threshold = top.peek().score;
+            }
+        }
+        PostingsEntry[] best = top.toArray(new PostingsEntry[0]);
+        Arrays.sort(best);
+        PostingsList result = new PostingsList();
+        for (PostingsEntry pe : best) result.add(pe);
+        return result;
+    }
+
+
+    /**
+     *  Returns the largest tf/norm of the documents in the list. It
+     *  is computed once and cached in the list, until the lengths or
+     *  norms in the document table change.
+     */
+    static double scoreBound(PostingsList list) {
+        int version = Index.docTable.version();
+        double bound = list.getScoreBound(version);
+        if (bound <= 0) {
+            for (int i = 0; i < list.size(); i++) {
+                bound = Math.max(bound, list.getFrequency(i) / normalizer(list.getDocID(i)));
+            }
+            list.setScoreBound(bound, version);
+        }
+        return bound;
+    }
+
+
+    /**
+     *  Returns the norm of a document's tf-idf vector or, if that is not
+     *  known, its number of tokens.
+     */
+    private static double normalizer(int docID) {
+        double norm = Index.docTable.getNorm(docID);
+        if (norm > 0) return norm;
+        int length = Index.docTable.getLength(docID);
+        return length > 0 ? length : 1.0;
+    }
+
+
+    /**
+     *  Orders the cursors by current docID, finished cursors last.
+     *  Insertion sort, since there are few cursors and they are mostly
+     *  in order already.
+     */
+    private static void sortByDocID(Cursor[] c) {
+        for (int i = 1; i < c.length; i++) {
+            Cursor x = c[i];
+            int j = i - 1;
+            while (j >= 0 && x.before(c[j])) {
+                c[j + 1] = c[j];
+                j--;
+            }
+            c[j + 1] = x;
+        }
+    }
+
+
+    /**
+     *  Position in the postings of one query term during ranked retrieval.
+     */
+    private static class Cursor {
+        PostingsList list;
+        int pos = 0;
+        double weight;
+        double bound;
+
+        Cursor(PostingsList list, double weight, double bound) {
+            list.sortByDocID();
+            this.list = list;
+            this.weight = weight;
+            this.bound = bound;
+        }
+
+        boolean done() {
+            return pos >= list.size();
+        }
+
+        int doc() {
+            return list.getDocID(pos);
+        }
+
+        boolean before(Cursor other) {
+            if (done()) return false;
+            return other.done() || doc() < other.doc();
+        }
+    }
+}
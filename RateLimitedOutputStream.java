@@ -0,0 +1,69 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ *   An output stream that writes at most a given number of bytes per
+ *   second on average, by sleeping whenever it gets ahead of that rate.
+ *   Used for background merges, so that they don't take all the disk
+ *   bandwidth from indexing and searching.
+ */
+public class RateLimitedOutputStream extends FilterOutputStream {
+
+    /** How often the rate is checked, in bytes. */
+    private static final long CHECK_INTERVAL = 1 << 16;
+
+    private double bytesPerSecond;
+    private long start = System.nanoTime();
+    private long written = 0;
+    private long unchecked = 0;
+
+
+    public RateLimitedOutputStream( OutputStream out, double bytesPerSecond ) {
+	super( out );
+	this.bytesPerSecond = bytesPerSecond;
+    }
+
+
+    public void write( int b ) throws IOException {
+	out.write( b );
+	count( 1 );
+    }
+
+    public void write( byte[] b, int off, int len ) throws IOException {
+	out.write( b, off, len );
+	count( len );
+    }
+
+
+    /**
+     *  Sleeps until the bytes written so far are within the rate.
+     */
+    private void count( int n ) throws IOException {
+	written += n;
+	unchecked += n;
+	if ( unchecked < CHECK_INTERVAL ) {
+	    return;
+	}
+	unchecked = 0;
+	long due = start + (long)( written / bytesPerSecond * 1e9 );
+	long wait = due - System.nanoTime();
+	if ( wait > 0 ) {
+	    try {
+		Thread.sleep( wait / 1000000, (int)( wait % 1000000 ));
+	    }
+	    catch ( InterruptedException e ) {
+		Thread.currentThread().interrupt();
+		throw new InterruptedIOException( "Interrupted while writing" );
+	    }
+	}
+    }
+}
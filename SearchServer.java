@@ -0,0 +1,485 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *   Answers queries over HTTP, without a graphical interface.
+ *
+ *   The index is built or loaded once, from the same options as
+ *   SearchGUI, and then searched by every request. A query is posted to
+ *   /search as a JSON object
+ *
+ *     { "query": "foo bar", "queryType": "ranked", "rankingType": "tfidf", "k": 10 }
+ *
+ *   or given as the parameters of a GET request
+ *   (/search?query=foo+bar&queryType=ranked&k=10). queryType is
+ *   intersection, phrase or ranked, rankingType is tfidf, pagerank or
+ *   combination; both may also be given as the numbers in Index. The
+ *   answer is a JSON object with the number of matching documents and
+ *   the first k of them, where k is from 1 to MAX_K. Results of recent
+ *   queries are cached; /stats tells how often the cache was hit.
+ *
+ *   Each request runs in a virtual thread of its own if the JVM has
+ *   them (Java 21 and later), and otherwise in a fixed pool of threads.
+ */
+public class SearchServer {
+
+    /** Port to listen on, unless given with -p. */
+    public static final int DEFAULT_PORT = 8080;
+
+    /** Number of results returned unless the request gives k. */
+    public static final int DEFAULT_K = 10;
+
+    /** Largest k a request may give. */
+    public static final int MAX_K = 1000;
+
+    /** Longest request body read, in bytes. */
+    private static final int MAX_REQUEST = 1 << 16;
+
+    /** Connections waiting to be accepted. */
+    private static final int BACKLOG = 1024;
+
+    private Indexer indexer;
+
+    /** Results of recent searches. */
+    private QueryCache cache;
+
+    /** Held by searches in indexes that cannot be searched concurrently. */
+    private Object searchLock = new Object();
+
+
+    public SearchServer( Indexer indexer ) {
+	this.indexer = indexer;
+	cache = new QueryCache( indexer.index, QueryCache.DEFAULT_SIZE );
+	indexer.setCache( cache );
+    }
+
+
+    /**
+     *  Starts answering requests on the given port of the loopback
+     *  interface.
+     */
+    public HttpServer start( int port ) throws IOException {
+	HttpServer server = HttpServer.create( new InetSocketAddress( "127.0.0.1", port ), BACKLOG );
+	server.createContext( "/search", new HttpHandler() {
+	    public void handle( HttpExchange exchange ) throws IOException {
+		handleSearch( exchange );
+	    }
+	});
+	server.createContext( "/stats", new HttpHandler() {
+	    public void handle( HttpExchange exchange ) throws IOException {
+		send( exchange, 200, "{\"cacheHits\":" + cache.getHits() + ",\"cacheMisses\":" + cache.getMisses() +
+		      ",\"cachedResults\":" + cache.size() + ",\"cacheBytes\":" + cache.getBytes() + "}" );
+	    }
+	});
+	server.setExecutor( newExecutor() );
+	server.start();
+	return server;
+    }
+
+
+    /**
+     *  Returns an executor that starts a virtual thread per task, or a
+     *  pool of platform threads if virtual threads are not available.
+     *  Searches are CPU-bound, so the pool only needs a few threads per
+     *  processor.
+     */
+    static ExecutorService newExecutor() {
+	try {
+	    return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+	}
+	catch ( Exception e ) {
+	    return Executors.newFixedThreadPool( 2 * Runtime.getRuntime().availableProcessors() );
+	}
+    }
+
+
+    /**
+     *  Runs the query of a request and sends back the results.
+     */
+    private void handleSearch( HttpExchange exchange ) throws IOException {
+	int status = 200;
+	String response;
+	try {
+	    HashMap<String,String> request;
+	    if ( "POST".equals( exchange.getRequestMethod() )) {
+		request = parseObject( readBody( exchange.getRequestBody() ));
+	    }
+	    else {
+		request = parseParameters( exchange.getRequestURI().getRawQuery() );
+	    }
+	    response = search( request );
+	}
+	catch ( IllegalArgumentException e ) {
+	    status = 400;
+	    response = "{\"error\":" + quote( e.getMessage() ) + "}";
+	}
+	catch ( RuntimeException e ) {
+	    e.printStackTrace();
+	    status = 500;
+	    response = "{\"error\":" + quote( e.toString() ) + "}";
+	}
+	send( exchange, status, response );
+    }
+
+
+    private static void send( HttpExchange exchange, int status, String response ) throws IOException {
+	byte[] bytes = response.getBytes( "UTF-8" );
+	exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+	exchange.sendResponseHeaders( status, bytes.length );
+	OutputStream out = exchange.getResponseBody();
+	out.write( bytes );
+	out.close();
+    }
+
+
+    /**
+     *  Searches the index and returns the results as a JSON object.
+     */
+    String search( HashMap<String,String> request ) {
+	String q = request.get( "query" );
+	if ( q == null ) {
+	    throw new IllegalArgumentException( "No query" );
+	}
+	int queryType = option( request.get( "queryType" ), Index.INTERSECTION_QUERY, "intersection", "phrase", "ranked" );
+	int rankingType = option( request.get( "rankingType" ), Index.TF_IDF, "tfidf", "pagerank", "combination" );
+	int k = DEFAULT_K;
+	if ( request.get( "k" ) != null ) {
+	    try {
+		k = Integer.parseInt( request.get( "k" ));
+	    }
+	    catch ( NumberFormatException e ) {
+		throw new IllegalArgumentException( "Bad k: " + request.get( "k" ));
+	    }
+	    if ( k < 1 || k > MAX_K ) {
+		throw new IllegalArgumentException( "k not between 1 and " + MAX_K + ": " + k );
+	    }
+	}
+	long start = System.nanoTime();
+	Query query = new Query( q );
+	query.k = k;
+	PostingsList results;
+	if ( indexer.index instanceof MegaIndex ) {
+	    synchronized ( searchLock ) {
+		results = cache.search( query, queryType, rankingType );
+	    }
+	}
+	else {
+	    results = cache.search( query, queryType, rankingType );
+	}
+	int n = results == null ? 0 : results.size();
+	StringBuilder sb = new StringBuilder();
+	sb.append( "{\"found\":" ).append( n ).append( ",\"results\":[" );
+	for ( int i=0; i<Math.min( n, k ); i++ ) {
+	    int docID = results.getDocID( i );
+	    String name = Index.docTable.getName( docID );
+	    if ( i > 0 ) {
+		sb.append( ',' );
+	    }
+	    sb.append( "{\"docID\":" ).append( docID );
+	    sb.append( ",\"name\":" ).append( name == null ? "null" : quote( name ));
+	    if ( queryType == Index.RANKED_QUERY ) {
+		sb.append( ",\"score\":" ).append( (float)results.getScore( i ));
+	    }
+	    sb.append( '}' );
+	}
+	sb.append( "],\"millis\":" ).append( ( System.nanoTime() - start ) / 1000000.0 ).append( '}' );
+	return sb.toString();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Returns the value of an option given by name (the index of the
+     *  name in @code{names}) or by number.
+     */
+    private static int option( String value, int dflt, String... names ) {
+	if ( value == null ) {
+	    return dflt;
+	}
+	for ( int i=0; i<names.length; i++ ) {
+	    if ( names[i].equalsIgnoreCase( value )) {
+		return i;
+	    }
+	}
+	try {
+	    int i = Integer.parseInt( value );
+	    if ( i >= 0 && i < names.length ) {
+		return i;
+	    }
+	}
+	catch ( NumberFormatException e ) {
+	}
+	throw new IllegalArgumentException( "Unknown option: " + value );
+    }
+
+
+    private static String readBody( InputStream in ) throws IOException {
+	ByteArrayOutputStream body = new ByteArrayOutputStream();
+	byte[] buf = new byte[4096];
+	int n;
+	while (( n = in.read( buf )) > 0 ) {
+	    body.write( buf, 0, n );
+	    if ( body.size() > MAX_REQUEST ) {
+		throw new IllegalArgumentException( "Request too long" );
+	    }
+	}
+	in.close();
+	return body.toString( "UTF-8" );
+    }
+
+
+    /**
+     *  Parses the parameters of a URL query string.
+     */
+    static HashMap<String,String> parseParameters( String s ) throws IOException {
+	HashMap<String,String> map = new HashMap<String,String>();
+	if ( s == null ) {
+	    return map;
+	}
+	for ( String pair : s.split( "&" )) {
+	    int eq = pair.indexOf( '=' );
+	    if ( eq > 0 ) {
+		map.put( URLDecoder.decode( pair.substring( 0, eq ), "UTF-8" ), URLDecoder.decode( pair.substring( eq+1 ), "UTF-8" ));
+	    }
+	}
+	return map;
+    }
+
+
+    /**
+     *  Parses a flat JSON object whose values are strings, numbers,
+     *  booleans or null. Values are returned as strings; null values
+     *  are left out.
+     */
+    static HashMap<String,String> parseObject( String s ) {
+	HashMap<String,String> map = new HashMap<String,String>();
+	int[] pos = { skipSpace( s, 0 ) };
+	expect( s, pos, '{' );
+	if ( peek( s, pos ) == '}' ) {
+	    return map;
+	}
+	while ( true ) {
+	    if ( peek( s, pos ) != '"' ) {
+		throw new IllegalArgumentException( "Expected a name at " + pos[0] );
+	    }
+	    String name = parseString( s, pos );
+	    expect( s, pos, ':' );
+	    String value;
+	    if ( peek( s, pos ) == '"' ) {
+		value = parseString( s, pos );
+	    }
+	    else {
+		int start = pos[0];
+		while ( pos[0] < s.length() && ",} \t\r\n".indexOf( s.charAt( pos[0] )) < 0 ) {
+		    pos[0]++;
+		}
+		value = s.substring( start, pos[0] );
+		if ( value.length() == 0 ) {
+		    throw new IllegalArgumentException( "Expected a value at " + start );
+		}
+		if ( value.equals( "null" )) {
+		    value = null;
+		}
+	    }
+	    if ( value != null ) {
+		map.put( name, value );
+	    }
+	    char c = peek( s, pos );
+	    pos[0]++;
+	    if ( c == '}' ) {
+		return map;
+	    }
+	    if ( c != ',' ) {
+		throw new IllegalArgumentException( "Expected ',' or '}' at " + ( pos[0]-1 ));
+	    }
+	    pos[0] = skipSpace( s, pos[0] );
+	}
+    }
+
+    private static String parseString( String s, int[] pos ) {
+	StringBuilder sb = new StringBuilder();
+	int i = pos[0]+1;
+	while ( i < s.length() && s.charAt( i ) != '"' ) {
+	    char c = s.charAt( i++ );
+	    if ( c == '\\' && i < s.length() ) {
+		c = s.charAt( i++ );
+		switch ( c ) {
+		case 'n': c = '\n'; break;
+		case 't': c = '\t'; break;
+		case 'r': c = '\r'; break;
+		case 'b': c = '\b'; break;
+		case 'f': c = '\f'; break;
+		case 'u':
+		    if ( i+4 > s.length() ) {
+			throw new IllegalArgumentException( "Bad escape at " + i );
+		    }
+		    c = (char)Integer.parseInt( s.substring( i, i+4 ), 16 );
+		    i += 4;
+		    break;
+		}
+	    }
+	    sb.append( c );
+	}
+	if ( i >= s.length() ) {
+	    throw new IllegalArgumentException( "Unterminated string" );
+	}
+	pos[0] = skipSpace( s, i+1 );
+	return sb.toString();
+    }
+
+    private static void expect( String s, int[] pos, char c ) {
+	if ( peek( s, pos ) != c ) {
+	    throw new IllegalArgumentException( "Expected '" + c + "' at " + pos[0] );
+	}
+	pos[0] = skipSpace( s, pos[0]+1 );
+    }
+
+    private static char peek( String s, int[] pos ) {
+	pos[0] = skipSpace( s, pos[0] );
+	if ( pos[0] >= s.length() ) {
+	    throw new IllegalArgumentException( "Unexpected end of request" );
+	}
+	return s.charAt( pos[0] );
+    }
+
+    private static int skipSpace( String s, int i ) {
+	while ( i < s.length() && Character.isWhitespace( s.charAt( i ))) {
+	    i++;
+	}
+	return i;
+    }
+
+
+    /**
+     *  Returns a string as a JSON string literal.
+     */
+    static String quote( String s ) {
+	StringBuilder sb = new StringBuilder( s.length()+2 );
+	sb.append( '"' );
+	for ( int i=0; i<s.length(); i++ ) {
+	    char c = s.charAt( i );
+	    if ( c == '"' || c == '\\' ) {
+		sb.append( '\\' ).append( c );
+	    }
+	    else if ( c < 0x20 ) {
+		sb.append( String.format( "\\u%04x", (int)c ));
+	    }
+	    else {
+		sb.append( c );
+	    }
+	}
+	return sb.append( '"' ).toString();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Takes the options of SearchGUI (-i, -d, -m, -s, -t, -w, -r, -c,
+     *  -o, -l, -b), and -p for the port.
+     */
+    public static void main( String[] args ) throws IOException {
+	LinkedList<String> indexFiles = new LinkedList<String>();
+	LinkedList<File> dirs = new LinkedList<File>();
+	int indexType = Index.HASHED_INDEX;
+	int threads = 0;
+	int port = DEFAULT_PORT;
+	boolean watch = false;
+	double mergeRate = MergeScheduler.DEFAULT_RATE;
+	long postingsCacheSize = PostingsCache.DEFAULT_SIZE;
+	boolean offHeap = false;
+	File linksFile = null;
+	for ( int i=0; i<args.length; i++ ) {
+	    if ( "-i".equals( args[i] ) && i+1 < args.length ) {
+		indexFiles.add( args[++i] );
+	    }
+	    else if ( "-d".equals( args[i] ) && i+1 < args.length ) {
+		dirs.add( new File( args[++i] ));
+	    }
+	    else if ( "-m".equals( args[i] )) {
+		indexType = Index.MEGA_INDEX;
+	    }
+	    else if ( "-s".equals( args[i] )) {
+		indexType = Index.MAPPED_SEGMENT_INDEX;
+	    }
+	    else if ( "-t".equals( args[i] ) && i+1 < args.length ) {
+		threads = Integer.parseInt( args[++i] );
+	    }
+	    else if ( "-w".equals( args[i] )) {
+		watch = true;
+	    }
+	    else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+		mergeRate = Double.parseDouble( args[++i] ) * ( 1 << 20 );
+	    }
+	    else if ( "-c".equals( args[i] ) && i+1 < args.length ) {
+		postingsCacheSize = (long)( Double.parseDouble( args[++i] ) * ( 1 << 20 ));
+	    }
+	    else if ( "-o".equals( args[i] )) {
+		offHeap = true;
+	    }
+	    else if ( "-l".equals( args[i] ) && i+1 < args.length ) {
+		linksFile = new File( args[++i] );
+	    }
+	    else if ( "-b".equals( args[i] ) && i+1 < args.length ) {
+		SearchGUI.setBlend( args[++i] );
+	    }
+	    else if ( "-p".equals( args[i] ) && i+1 < args.length ) {
+		port = Integer.parseInt( args[++i] );
+	    }
+	    else {
+		System.err.println( "Unknown option: " + args[i] );
+		return;
+	    }
+	}
+	PostingsCache.setShared( new PostingsCache( postingsCacheSize, offHeap ));
+	Indexer indexer;
+	if ( indexType == Index.HASHED_INDEX ) {
+	    indexer = new Indexer();
+	}
+	else if ( indexType == Index.MAPPED_SEGMENT_INDEX ) {
+	    MappedSegmentIndex index = new MappedSegmentIndex( indexFiles );
+	    index.startMerging( mergeRate );
+	    indexer = new Indexer( index );
+	}
+	else {
+	    indexer = new Indexer( indexFiles );
+	}
+	if ( threads > 0 ) {
+	    indexer.setThreads( threads );
+	}
+	if ( !dirs.isEmpty() ) {
+	    indexer.processFiles( dirs );
+	}
+	if ( linksFile != null ) {
+	    PageRank.load( linksFile, Index.docIDs, threads );
+	}
+	if ( watch ) {
+	    // Only a MappedSegmentIndex can be searched while it changes
+	    indexer.watch( dirs );
+	}
+	new SearchServer( indexer ).start( port );
+	System.err.println( "Listening on port " + port );
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ *   A read-only view of a segment file written by SegmentWriter.
+ *
+ *   The file is memory-mapped, so opening a segment only reads the
+ *   header, and the pages are shared through the OS page cache by all
+ *   processes that map the same file. Terms are found by binary search
+ *   in the term index, and only the postings of the terms actually looked
+ *   up are decoded. All reads work on duplicates of the mapped buffer, so
+ *   a segment can be used by several threads at once.
+ */
+public class Segment {
+
+    /** The segment file. */
+    private File file;
+
+    /** The whole file, mapped read-only. */
+    private MappedByteBuffer buf;
+
+    /** The terms of the segment, built on first use. */
+    private FrontCodedLexicon lexicon;
+
+    /** The docIDs of the segment, read on first use. */
+    private int[] documentIDs;
+
+    /**
+     *  Score bounds of the terms, 0 where not computed yet, and the
+     *  version of the document table they were computed for.
+     */
+    private float[] scoreBounds;
+    private int scoreBoundsVersion;
+
+    private int version;
+    private int termCount;
+    private int docCount;
+    private int termIndexStart;
+    private int docsStart;
+
+
+    private Segment( File file, MappedByteBuffer buf ) throws IOException {
+	this.file = file;
+	this.buf = buf;
+	version = buf.getInt( 4 );
+	if ( buf.getInt( 0 ) != SegmentWriter.MAGIC || version < 1 || version > SegmentWriter.VERSION ) {
+	    throw new IOException( "Not a segment file: " + file );
+	}
+	termCount = buf.getInt( 8 );
+	docCount = buf.getInt( 12 );
+	termIndexStart = buf.getInt( 20 );
+	docsStart = buf.getInt( 24 );
+    }
+
+
+    /**
+     *  Maps a segment file into memory.
+     */
+    public static Segment open( File file ) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile( file, "r" );
+	try {
+	    FileChannel channel = raf.getChannel();
+	    // The mapping stays valid after the channel is closed
+	    MappedByteBuffer buf = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+	    return new Segment( file, buf );
+	}
+	finally {
+	    raf.close();
+	}
+    }
+
+
+    public File getFile() {
+	return file;
+    }
+
+    /**  Number of terms in the segment */
+    public int termCount() {
+	return termCount;
+    }
+
+    /**  Number of documents in the segment */
+    public int documentCount() {
+	return docCount;
+    }
+
+    /**  Size of the segment file in bytes */
+    public long length() {
+	return buf.capacity();
+    }
+
+
+    /**
+     *  Returns the ith term in sorted order.
+     */
+    public String term( int i ) {
+	ByteBuffer b = buf.duplicate();
+	b.position( buf.getInt( termIndexStart + 4*i ) + 4 );
+	return readString( b );
+    }
+
+
+    /**
+     *  Returns the postings of the ith term.
+     */
+    public PostingsList postings( int i ) {
+	ByteBuffer b = buf.duplicate();
+	b.position( buf.getInt( buf.getInt( termIndexStart + 4*i )));
+	return PostingsCodec.decode( b );
+    }
+
+
+    /**
+     *  Returns the number of documents containing the ith term.
+     */
+    public int documentFrequency( int i ) {
+	ByteBuffer b = buf.duplicate();
+	b.position( buf.getInt( buf.getInt( termIndexStart + 4*i )));
+	return PostingsCodec.documentFrequency( b );
+    }
+
+
+    /**
+     *  Returns the position of @code{term} in the sorted dictionary,
+     *  or -1 if the term is not in the segment.
+     */
+    public int find( String term ) {
+	byte[] key;
+	try {
+	    key = term.getBytes( "UTF-8" );
+	}
+	catch ( java.io.UnsupportedEncodingException e ) {
+	    throw new RuntimeException( e );
+	}
+	int lo = 0, hi = termCount-1;
+	while ( lo <= hi ) {
+	    int mid = ( lo + hi ) >>> 1;
+	    int c = compare( mid, key );
+	    if ( c < 0 ) {
+		lo = mid+1;
+	    }
+	    else if ( c > 0 ) {
+		hi = mid-1;
+	    }
+	    else {
+		return mid;
+	    }
+	}
+	return -1;
+    }
+
+
+    /**
+     *  Returns the postings for a term, or null if the term is not
+     *  in the segment. Lists are kept in the shared PostingsCache.
+     */
+    public PostingsList getPostings( String term ) {
+	PostingsCache cache = PostingsCache.getShared();
+	PostingsList list = cache.get( this, term );
+	if ( list == null ) {
+	    int i = find( term );
+	    if ( i < 0 ) {
+		return null;
+	    }
+	    list = postings( i );
+	    cache.put( this, term, list );
+	}
+	return list;
+    }
+
+
+    /**
+     *  Returns the score bound of a term's postings (see QueryEngine),
+     *  or 0 if the term is not in the segment. Bounds are kept until the
+     *  lengths or norms of the documents change, also when the postings
+     *  are dropped from the PostingsCache.
+     */
+    public double scoreBound( String term ) {
+	int i = find( term );
+	if ( i < 0 ) {
+	    return 0;
+	}
+	int version = Index.docTable.version();
+	synchronized ( this ) {
+	    if ( scoreBounds == null || scoreBoundsVersion != version ) {
+		scoreBounds = new float[termCount];
+		scoreBoundsVersion = version;
+	    }
+	    if ( scoreBounds[i] > 0 ) {
+		return scoreBounds[i];
+	    }
+	}
+	double bound = QueryEngine.scoreBound( getPostings( term ));
+	// Rounded up, so that it is still a bound
+	float f = (float)bound;
+	if ( f < bound ) {
+	    f = Math.nextUp( f );
+	}
+	synchronized ( this ) {
+	    if ( scoreBoundsVersion == version ) {
+		scoreBounds[i] = f;
+	    }
+	}
+	return f;
+    }
+
+
+    /**
+     *  Returns the terms of the segment as a lexicon.
+     */
+    public synchronized FrontCodedLexicon getLexicon() {
+	if ( lexicon == null ) {
+	    FrontCodedLexicon l = new FrontCodedLexicon();
+	    for ( int i=0; i<termCount; i++ ) {
+		l.add( term( i ));
+	    }
+	    lexicon = l;
+	}
+	return lexicon;
+    }
+
+
+    /**
+     *  Returns a stream over all terms of the segment, in order.
+     */
+    public TermStream stream() {
+	return new TermStream() {
+	    int i = -1;
+	    String current;
+	    public boolean next() {
+		current = ++i < termCount ? Segment.this.term( i ) : null;
+		return current != null;
+	    }
+	    public String term() {
+		return current;
+	    }
+	    public PostingsList postings() {
+		return Segment.this.postings( i );
+	    }
+	};
+    }
+
+
+    /**
+     *  Returns the docIDs of the documents of the segment.
+     */
+    public synchronized int[] documentIDs() {
+	if ( documentIDs != null ) {
+	    return documentIDs;
+	}
+	int[] ids = new int[docCount];
+	ByteBuffer b = buf.duplicate();
+	b.position( docsStart );
+	for ( int i=0; i<docCount; i++ ) {
+	    ids[i] = b.getInt();
+	    b.position( b.position() + ( version > 1 ? 8 : 4 ));
+	    readString( b );
+	}
+	documentIDs = ids;
+	return ids;
+    }
+
+
+    /**
+     *  Adds the documents of the segment that are not in @code{deleted}
+     *  to a segment being written.
+     */
+    public void copyDocuments( SegmentWriter writer, BitSet deleted ) throws IOException {
+	ByteBuffer b = buf.duplicate();
+	b.position( docsStart );
+	for ( int i=0; i<docCount; i++ ) {
+	    int docID = b.getInt();
+	    int length = b.getInt();
+	    float norm = version > 1 ? b.getFloat() : 0;
+	    String path = readString( b );
+	    if ( docID < 0 || !deleted.get( docID )) {
+		writer.addDocument( docID, path, length, norm );
+	    }
+	}
+    }
+
+
+    /**
+     *  Adds the documents of the segment that are not in the document
+     *  table yet. The table may have been saved after the segment was
+     *  written, with newer norms.
+     */
+    public void loadDocuments( DocumentTable docTable ) {
+	ByteBuffer b = buf.duplicate();
+	b.position( docsStart );
+	for ( int i=0; i<docCount; i++ ) {
+	    int docID = b.getInt();
+	    int length = b.getInt();
+	    float norm = version > 1 ? b.getFloat() : 0;
+	    String path = readString( b );
+	    if ( !docTable.contains( docID )) {
+		docTable.put( docID, path, length, norm );
+	    }
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Compares the ith term with @code{key}, byte by byte.
+     */
+    private int compare( int i, byte[] key ) {
+	int pos = buf.getInt( termIndexStart + 4*i ) + 4;
+	ByteBuffer b = buf.duplicate();
+	b.position( pos );
+	int len = PostingsCodec.readVByte( b );
+	pos = b.position();
+	int n = Math.min( len, key.length );
+	for ( int k=0; k<n; k++ ) {
+	    int c = ( buf.get( pos+k ) & 0xFF ) - ( key[k] & 0xFF );
+	    if ( c != 0 ) {
+		return c;
+	    }
+	}
+	return len - key.length;
+    }
+
+    private static String readString( ByteBuffer b ) {
+	int len = PostingsCodec.readVByte( b );
+	byte[] bytes = new byte[len];
+	b.get( bytes );
+	try {
+	    return new String( bytes, "UTF-8" );
+	}
+	catch ( java.io.UnsupportedEncodingException e ) {
+	    throw new RuntimeException( e );
+	}
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ *   Writes an immutable index segment to a single file.
+ *
+ *   Terms must be added in increasing order. The file layout is
+ *
+ *     header      magic, version, #terms, #documents, and the start of
+ *                 the dictionary, term index and document sections
+ *     postings    one PostingsCodec-encoded list per term
+ *     dictionary  per term: position of its postings, then the term
+ *                 as VByte length + UTF-8 bytes
+ *     term index  one int per term: position of its dictionary entry
+ *     documents   per document: docID, length, norm, path (VByte length
+ *                 + UTF-8). Version 1 files have no norm.
+ *
+ *   All positions are absolute file positions. See Segment for the reader.
+ */
+public class SegmentWriter {
+
+    static final int MAGIC = 0x49525347;  // "IRSG"
+    static final int VERSION = 2;
+    static final int HEADER_LENGTH = 28;
+
+    /** The file being written. */
+    private File file;
+
+    /** Postings go straight to the file. */
+    private DataOutputStream out;
+
+    /** Counts the bytes written to @code{out}. */
+    private CountingOutputStream counter;
+
+    /** Dictionary, term index and documents are kept until close(). */
+    private ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+    private ByteArrayOutputStream documents = new ByteArrayOutputStream();
+    private int[] termIndex = new int[1024];
+    private int termCount = 0;
+    private int docCount = 0;
+
+    /** The last term added, to check the order. */
+    private String lastTerm = null;
+
+
+    public SegmentWriter( File file ) throws IOException {
+	this( file, 0 );
+    }
+
+
+    /**
+     *  Creates a writer that writes at most @code{bytesPerSecond} bytes
+     *  per second, or without limit if it is 0.
+     */
+    public SegmentWriter( File file, double bytesPerSecond ) throws IOException {
+	this.file = file;
+	OutputStream os = new FileOutputStream( file );
+	if ( bytesPerSecond > 0 ) {
+	    os = new RateLimitedOutputStream( os, bytesPerSecond );
+	}
+	counter = new CountingOutputStream( new BufferedOutputStream( os, 1 << 16 ));
+	out = new DataOutputStream( counter );
+	// Placeholder for the header, which is filled in by close()
+	out.write( new byte[HEADER_LENGTH] );
+    }
+
+
+    /**
+     *  Appends the postings of a term. Terms must come in increasing order.
+     */
+    public void add( String term, PostingsList postings ) throws IOException {
+	if ( lastTerm != null && lastTerm.compareTo( term ) >= 0 ) {
+	    throw new IllegalArgumentException( "Terms out of order: " + lastTerm + ", " + term );
+	}
+	lastTerm = term;
+	if ( termCount == termIndex.length ) {
+	    termIndex = Arrays.copyOf( termIndex, 2*termCount );
+	}
+	termIndex[termCount++] = dictionary.size();
+	int postingsStart = position();
+	PostingsCodec.encode( postings, out );
+	writeInt( dictionary, postingsStart );
+	writeString( dictionary, term );
+    }
+
+
+    /**
+     *  Records a document of the segment.
+     */
+    public void addDocument( int docID, String path, int length, float norm ) throws IOException {
+	writeInt( documents, docID );
+	writeInt( documents, length );
+	writeInt( documents, Float.floatToIntBits( norm ));
+	writeString( documents, path == null ? "" : path );
+	docCount++;
+    }
+
+
+    /**
+     *  Writes the dictionary, term index and documents and fills in the
+     *  header.
+     */
+    public void close() throws IOException {
+	int dictStart = position();
+	dictionary.writeTo( out );
+	int termIndexStart = position();
+	for ( int i=0; i<termCount; i++ ) {
+	    out.writeInt( dictStart + termIndex[i] );
+	}
+	int docsStart = position();
+	documents.writeTo( out );
+	// Segment maps the whole file into a single buffer
+	position();
+	out.close();
+	RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+	try {
+	    raf.writeInt( MAGIC );
+	    raf.writeInt( VERSION );
+	    raf.writeInt( termCount );
+	    raf.writeInt( docCount );
+	    raf.writeInt( dictStart );
+	    raf.writeInt( termIndexStart );
+	    raf.writeInt( docsStart );
+	}
+	finally {
+	    raf.close();
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Returns the current file position, or throws if it does not fit
+     *  in an int. DataOutputStream.size() stops at Integer.MAX_VALUE
+     *  instead, so it cannot be used for this.
+     */
+    private int position() throws IOException {
+	if ( counter.count > Integer.MAX_VALUE ) {
+	    out.close();
+	    throw new IOException( "Segment larger than 2GB: " + file );
+	}
+	return (int)counter.count;
+    }
+
+
+    /**
+     *  Passes bytes on unchanged and counts them in a long.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+	long count = 0;
+
+	CountingOutputStream( OutputStream out ) {
+	    super( out );
+	}
+
+	public void write( int b ) throws IOException {
+	    out.write( b );
+	    count++;
+	}
+
+	public void write( byte[] b, int off, int len ) throws IOException {
+	    out.write( b, off, len );
+	    count += len;
+	}
+    }
+
+
+    private static void writeInt( ByteArrayOutputStream out, int v ) {
+	out.write( v >>> 24 );
+	out.write( v >>> 16 );
+	out.write( v >>> 8 );
+	out.write( v );
+    }
+
+    private static void writeString( ByteArrayOutputStream out, String s ) throws IOException {
+	byte[] bytes = s.getBytes( "UTF-8" );
+	PostingsCodec.writeVByte( out, bytes.length );
+	out.write( bytes );
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *   Maps terms to dense integer identifiers 0, 1, 2, ... and back.
+ *
+ *   The characters of all terms are stored one after the other in a
+ *   single char array, so a term costs its characters plus three ints,
+ *   rather than a String and a hash map entry. Terms can be looked up
+ *   directly from a slice of a char array, as produced by
+ *   SimpleTokenizer.advance(), so a token that has been seen before
+ *   costs no allocation at all. The hash table uses open addressing
+ *   with linear probing. Not thread-safe.
+ */
+public class TermDictionary {
+
+    /** Term identifier + 1 for each slot, 0 for an empty slot. */
+    private int[] slots = new int[1024];
+
+    /** The characters of all terms. */
+    private char[] chars = new char[4096];
+
+    /** Term i is chars[starts[i]] ... chars[starts[i+1]-1]. */
+    private int[] starts = new int[513];
+
+    /** The hash code of each term, by identifier. */
+    private int[] hashes = new int[512];
+
+    private int size = 0;
+
+
+    /**  Number of terms in the dictionary */
+    public int size() {
+	return size;
+    }
+
+    /**  Returns the term with the given identifier */
+    public String term( int id ) {
+	return new String( chars, starts[id], starts[id+1]-starts[id] );
+    }
+
+
+    /**
+     *  Returns the identifier of buf[off..off+len-1], adding the term
+     *  if it is new.
+     */
+    public int add( char[] buf, int off, int len ) {
+	int hash = hash( buf, off, len );
+	int mask = slots.length-1;
+	int i = hash & mask;
+	while ( slots[i] != 0 ) {
+	    int id = slots[i]-1;
+	    if ( hashes[id] == hash && equals( id, buf, off, len )) {
+		return id;
+	    }
+	    i = ( i+1 ) & mask;
+	}
+	int id = size++;
+	if ( id == hashes.length ) {
+	    hashes = Arrays.copyOf( hashes, 2*id );
+	    starts = Arrays.copyOf( starts, 2*id+1 );
+	}
+	int start = starts[id];
+	if ( start+len > chars.length ) {
+	    chars = Arrays.copyOf( chars, Math.max( start+len, 2*chars.length ));
+	}
+	System.arraycopy( buf, off, chars, start, len );
+	starts[id+1] = start+len;
+	hashes[id] = hash;
+	slots[i] = id+1;
+	if ( 2*size > slots.length ) {
+	    rehash();
+	}
+	return id;
+    }
+
+
+    /**  Returns the identifier of a term, adding the term if it is new */
+    public int add( String term ) {
+	int id = find( term );
+	return id >= 0 ? id : add( term.toCharArray(), 0, term.length() );
+    }
+
+
+    /**
+     *  Returns the identifier of term @code{id} of another dictionary
+     *  in this one, adding the term if it is new.
+     */
+    public int add( TermDictionary other, int id ) {
+	return add( other.chars, other.starts[id], other.starts[id+1]-other.starts[id] );
+    }
+
+
+    /**
+     *  Returns the identifier of buf[off..off+len-1], or -1 if the term
+     *  is not in the dictionary.
+     */
+    public int find( char[] buf, int off, int len ) {
+	int hash = hash( buf, off, len );
+	int mask = slots.length-1;
+	for ( int i=hash&mask; slots[i]!=0; i=(i+1)&mask ) {
+	    int id = slots[i]-1;
+	    if ( hashes[id] == hash && equals( id, buf, off, len )) {
+		return id;
+	    }
+	}
+	return -1;
+    }
+
+
+    /**  Returns the identifier of a term, or -1 if it is unknown */
+    public int find( String term ) {
+	int h = 0;
+	for ( int i=0; i<term.length(); i++ ) {
+	    h = 31*h + term.charAt( i );
+	}
+	int hash = spread( h );
+	int mask = slots.length-1;
+	for ( int i=hash&mask; slots[i]!=0; i=(i+1)&mask ) {
+	    int id = slots[i]-1;
+	    if ( hashes[id] == hash && equals( id, term )) {
+		return id;
+	    }
+	}
+	return -1;
+    }
+
+
+    /**
+     *  Compares two terms in the order of String.compareTo.
+     */
+    public int compare( int a, int b ) {
+	int i = starts[a], j = starts[b];
+	int n = Math.min( starts[a+1]-i, starts[b+1]-j );
+	for ( int k=0; k<n; k++ ) {
+	    int c = chars[i+k] - chars[j+k];
+	    if ( c != 0 ) {
+		return c;
+	    }
+	}
+	return ( starts[a+1]-i ) - ( starts[b+1]-j );
+    }
+
+
+    /**
+     *  Returns the identifiers of all terms, in sorted term order.
+     */
+    public int[] sortedIDs() {
+	Integer[] order = new Integer[size];
+	for ( int i=0; i<size; i++ ) {
+	    order[i] = i;
+	}
+	Arrays.sort( order, new java.util.Comparator<Integer>() {
+	    public int compare( Integer a, Integer b ) {
+		return TermDictionary.this.compare( a, b );
+	    }
+	});
+	int[] ids = new int[size];
+	for ( int i=0; i<size; i++ ) {
+	    ids[i] = order[i];
+	}
+	return ids;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**  String.hashCode(), with the high bits spread into the low ones */
+    private static int hash( char[] buf, int off, int len ) {
+	int h = 0;
+	for ( int i=off; i<off+len; i++ ) {
+	    h = 31*h + buf[i];
+	}
+	return spread( h );
+    }
+
+    private static int spread( int h ) {
+	return h ^ ( h >>> 16 );
+    }
+
+    private boolean equals( int id, char[] buf, int off, int len ) {
+	int start = starts[id];
+	if ( starts[id+1]-start != len ) {
+	    return false;
+	}
+	for ( int i=0; i<len; i++ ) {
+	    if ( chars[start+i] != buf[off+i] ) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private boolean equals( int id, String term ) {
+	int start = starts[id];
+	if ( starts[id+1]-start != term.length() ) {
+	    return false;
+	}
+	for ( int i=0; i<term.length(); i++ ) {
+	    if ( chars[start+i] != term.charAt( i )) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private void rehash() {
+	int[] newSlots = new int[2*slots.length];
+	int mask = newSlots.length-1;
+	for ( int id=0; id<size; id++ ) {
+	    int i = hashes[id] & mask;
+	    while ( newSlots[i] != 0 ) {
+		i = ( i+1 ) & mask;
+	    }
+	    newSlots[i] = id+1;
+	}
+	slots = newSlots;
+    }
+}
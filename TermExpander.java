@@ -0,0 +1,258 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *   Expands query terms with wildcards ("foo*", "f?o") or edit-distance
+ *   tolerance ("foo~", "foo~2") into the terms of the index they match.
+ *
+ *   Expansion walks the sorted lexicon of the index. A wildcard only
+ *   visits the range of terms starting with the characters before the
+ *   first wildcard. A fuzzy term is matched with the Levenshtein
+ *   dynamic program, one row per character of the candidate term. Rows
+ *   for the prefix a term shares with the previous one are reused, and
+ *   as soon as every entry of a row exceeds the allowed distance, all
+ *   terms with that prefix are skipped in the lexicon.
+ */
+public class TermExpander {
+
+    /** Largest number of terms a pattern is expanded into. */
+    public static final int MAX_EXPANSIONS = 1000;
+
+    /** Largest edit distance allowed in a fuzzy term. */
+    public static final int MAX_DISTANCE = 2;
+
+
+    /**
+     *  Something terms can be looked up and expanded in, such as an
+     *  index or a snapshot of one.
+     */
+    public interface Source {
+	public PostingsList getPostings( String term );
+	public FrontCodedLexicon getLexicon();
+    }
+
+
+    /**  @code{true} if @code{term} has wildcards or a fuzzy marker */
+    public static boolean isPattern( String term ) {
+	return term.indexOf( '*' ) >= 0 || term.indexOf( '?' ) >= 0 || term.indexOf( '~' ) >= 0;
+    }
+
+
+    /**
+     *  Normalizes a pattern like an indexed token, but keeps '*', '?'
+     *  and '~'. Characters that cannot occur in a token are dropped.
+     */
+    public static String normalize( String word ) {
+	StringBuilder sb = new StringBuilder( word.length() );
+	char[] c = new char[1];
+	for ( int i=0; i<word.length(); i++ ) {
+	    c[0] = word.charAt( i );
+	    if ( c[0] == '*' || c[0] == '?' || c[0] == '~' ) {
+		sb.append( c[0] );
+	    }
+	    else if ( SimpleTokenizer.normalize( c, 0 ) && c[0] != '#' ) {
+		sb.append( c[0] );
+	    }
+	}
+	return sb.toString();
+    }
+
+
+    /**
+     *  Returns the postings of a term, or the union of the postings of
+     *  all terms a pattern expands into. Returns null if nothing matches.
+     */
+    public static PostingsList getPostings( final Index index, String term ) {
+	return getPostings( new Source() {
+	    public PostingsList getPostings( String term ) {
+		return index.getPostings( term );
+	    }
+	    public FrontCodedLexicon getLexicon() {
+		return index.getLexicon();
+	    }
+	}, term );
+    }
+
+
+    /**
+     *  Returns the postings of a term, or the union of the postings of
+     *  all terms a pattern expands into, from @code{source}.
+     */
+    public static PostingsList getPostings( Source source, String term ) {
+	if ( !isPattern( term )) {
+	    return source.getPostings( term );
+	}
+	ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+	for ( String t : expand( term, source.getLexicon() )) {
+	    PostingsList list = source.getPostings( t );
+	    if ( list != null && list.size() > 0 ) {
+		lists.add( list );
+	    }
+	}
+	return lists.isEmpty() ? null : PostingsList.union( lists );
+    }
+
+
+    /**
+     *  Returns the terms of the lexicon matching a pattern, in sorted
+     *  order, at most MAX_EXPANSIONS of them.
+     */
+    public static List<String> expand( String pattern, FrontCodedLexicon lexicon ) {
+	int tilde = pattern.indexOf( '~' );
+	if ( tilde < 0 ) {
+	    return wildcard( pattern, lexicon );
+	}
+	int distance = 1;
+	if ( tilde+1 < pattern.length() ) {
+	    try {
+		distance = Integer.parseInt( pattern.substring( tilde+1 ));
+	    }
+	    catch ( NumberFormatException e ) {
+	    }
+	}
+	distance = Math.max( 0, Math.min( distance, MAX_DISTANCE ));
+	return fuzzy( pattern.substring( 0, tilde ).replace( "*", "" ).replace( "?", "" ), distance, lexicon );
+    }
+
+
+    /**
+     *  Returns the terms matching a pattern where '*' stands for any
+     *  number of characters and '?' for exactly one.
+     */
+    public static List<String> wildcard( String pattern, FrontCodedLexicon lexicon ) {
+	ArrayList<String> result = new ArrayList<String>();
+	char[] p = pattern.toCharArray();
+	int n = 0;
+	while ( n < p.length && p[n] != '*' && p[n] != '?' ) {
+	    n++;
+	}
+	// "foo*" matches every term in the range of the prefix
+	boolean prefixOnly = n == p.length-1 && p[n] == '*';
+	int rank = lexicon.find( pattern.substring( 0, n ));
+	if ( rank < 0 ) {
+	    rank = -rank-1;
+	}
+	FrontCodedLexicon.Cursor c = lexicon.cursor( rank );
+	while ( result.size() < MAX_EXPANSIONS && c.next() && startsWith( c, p, n )) {
+	    if ( n == p.length ) {
+		// No wildcards; only the term itself matches
+		if ( c.length() == n ) {
+		    result.add( c.toString() );
+		}
+		break;
+	    }
+	    if ( prefixOnly || matches( p, n, c.term(), n, c.length() )) {
+		result.add( c.toString() );
+	    }
+	}
+	return result;
+    }
+
+
+    /**
+     *  Returns the terms within @code{distance} insertions, deletions
+     *  and substitutions of @code{word}.
+     */
+    public static List<String> fuzzy( String word, int distance, FrontCodedLexicon lexicon ) {
+	ArrayList<String> result = new ArrayList<String>();
+	char[] q = word.toCharArray();
+	int m = q.length;
+	// rows[d][j] is the distance between the first d characters of
+	// the candidate and the first j characters of the word. Beyond
+	// depth m+distance every entry exceeds the distance.
+	int[][] rows = new int[m+distance+2][m+1];
+	for ( int j=0; j<=m; j++ ) {
+	    rows[0][j] = j;
+	}
+	FrontCodedLexicon.Cursor c = lexicon.cursor( 0 );
+	// rows[0..valid] hold for the current term
+	int valid = 0;
+	while ( result.size() < MAX_EXPANSIONS && c.next() ) {
+	    char[] t = c.term();
+	    int len = c.length();
+	    int d = Math.min( valid, c.shared() );
+	    boolean pruned = false;
+	    while ( d < len ) {
+		int[] prev = rows[d];
+		int[] row = rows[d+1];
+		row[0] = d+1;
+		int min = row[0];
+		for ( int j=1; j<=m; j++ ) {
+		    int cost = prev[j-1] + ( t[d] == q[j-1] ? 0 : 1 );
+		    row[j] = Math.min( cost, Math.min( prev[j], row[j-1] ) + 1 );
+		    min = Math.min( min, row[j] );
+		}
+		d++;
+		if ( min > distance ) {
+		    pruned = true;
+		    break;
+		}
+	    }
+	    valid = d;
+	    if ( pruned ) {
+		// No term starting with t[0..d-1] is close enough
+		c.skipPrefix( d );
+		continue;
+	    }
+	    if ( rows[len][m] <= distance ) {
+		result.add( c.toString() );
+	    }
+	}
+	return result;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**  @code{true} if the current term starts with p[0..n-1] */
+    private static boolean startsWith( FrontCodedLexicon.Cursor c, char[] p, int n ) {
+	if ( c.length() < n ) {
+	    return false;
+	}
+	char[] t = c.term();
+	for ( int i=0; i<n; i++ ) {
+	    if ( t[i] != p[i] ) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+
+    /**
+     *  Matches t[j..tlen-1] against the pattern p[i..], backtracking to
+     *  the last '*' on a mismatch.
+     */
+    private static boolean matches( char[] p, int i, char[] t, int j, int tlen ) {
+	int star = -1, mark = 0;
+	while ( j < tlen ) {
+	    if ( i < p.length && ( p[i] == '?' || p[i] == t[j] )) {
+		i++;
+		j++;
+	    }
+	    else if ( i < p.length && p[i] == '*' ) {
+		star = i++;
+		mark = j;
+	    }
+	    else if ( star >= 0 ) {
+		i = star+1;
+		j = ++mark;
+	    }
+	    else {
+		return false;
+	    }
+	}
+	while ( i < p.length && p[i] == '*' ) {
+	    i++;
+	}
+	return i == p.length;
+    }
+}
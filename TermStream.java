@@ -0,0 +1,29 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+
+/**
+ *   A sequence of terms with their postings, in increasing term order.
+ *   Used to merge indexes without loading them into memory.
+ */
+public interface TermStream {
+
+    /**
+     *  Moves to the next term.
+     *
+     *  @return @code{false} if there are no more terms.
+     */
+    public boolean next() throws IOException;
+
+    /**  The current term */
+    public String term();
+
+    /**  The postings of the current term */
+    public PostingsList postings() throws IOException;
+
+}
@@ -0,0 +1,116 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *   Generates synthetic text whose word frequencies follow Zipf's law,
+ *   as in natural language: the word of rank r occurs with probability
+ *   proportional to 1/r^s. The same seed always gives the same text, so
+ *   that benchmarks can be compared between runs.
+ *
+ *   Words are lower-case letter strings, so they are tokens of their own
+ *   for SimpleTokenizer. The word of rank r is r written in base 26 with
+ *   the letters a-z as digits, which makes frequent words short.
+ */
+public class ZipfianCorpus {
+
+    /** The usual Zipf exponent of English text. */
+    public static final double DEFAULT_EXPONENT = 1.0;
+
+    /** The vocabulary, by rank. */
+    private String[] words;
+
+    /** cumulative[r] is the probability of a word of rank at most r. */
+    private double[] cumulative;
+
+    private Random random;
+
+
+    public ZipfianCorpus( int vocabularySize, double exponent, long seed ) {
+	words = new String[vocabularySize];
+	cumulative = new double[vocabularySize];
+	double sum = 0;
+	for ( int r=0; r<vocabularySize; r++ ) {
+	    words[r] = word( r );
+	    sum += 1 / Math.pow( r+1, exponent );
+	    cumulative[r] = sum;
+	}
+	for ( int r=0; r<vocabularySize; r++ ) {
+	    cumulative[r] /= sum;
+	}
+	random = new Random( seed );
+    }
+
+
+    /**  The word of the given rank */
+    public static String word( int rank ) {
+	StringBuilder sb = new StringBuilder();
+	do {
+	    sb.append( (char)( 'a' + rank % 26 ));
+	    rank = rank / 26 - 1;
+	} while ( rank >= 0 );
+	return sb.reverse().toString();
+    }
+
+
+    /**  Number of different words */
+    public int vocabularySize() {
+	return words.length;
+    }
+
+
+    /**  Draws the rank of the next word */
+    public int nextRank() {
+	int i = Arrays.binarySearch( cumulative, random.nextDouble() );
+	return Math.min( i < 0 ? -i-1 : i, words.length-1 );
+    }
+
+
+    /**  Draws the next word */
+    public String nextWord() {
+	return words[nextRank()];
+    }
+
+
+    /**
+     *  Returns a document of @code{length} words separated by spaces,
+     *  with a line break every 12 words.
+     */
+    public String document( int length ) {
+	StringBuilder sb = new StringBuilder( 8*length );
+	for ( int i=0; i<length; i++ ) {
+	    sb.append( nextWord() ).append( i % 12 == 11 ? '\n' : ' ' );
+	}
+	return sb.toString();
+    }
+
+
+    /**
+     *  Writes @code{count} documents of @code{length} words each to
+     *  files 0.txt, 1.txt, ... in @code{dir}, which is created if
+     *  necessary.
+     */
+    public void writeDocuments( File dir, int count, int length ) throws IOException {
+	dir.mkdirs();
+	for ( int d=0; d<count; d++ ) {
+	    Writer out = new OutputStreamWriter( new FileOutputStream( new File( dir, d + ".txt" )), "UTF-8" );
+	    try {
+		out.write( document( length ));
+	    }
+	    finally {
+		out.close();
+	    }
+	}
+    }
+}
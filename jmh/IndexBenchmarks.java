@@ -0,0 +1,165 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *   The benchmarks of ir.Benchmark, run by JMH: tokenizing, adding
+ *   postings, indexing files and the three types of query, on the same
+ *   synthetic corpus from ZipfianCorpus. JMH takes care of warming up,
+ *   forking and the statistics; ir.Benchmark remains for quick runs and
+ *   for comparing with saved results.
+ *
+ *   The documents of the index are in the static document table of
+ *   Index, so the benchmarks must not run in several threads. Each
+ *   benchmark gets an index of its own from setUp().
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class IndexBenchmarks {
+
+    /** Number of queries of each type, used in turn. */
+    private static final int QUERIES = 1000;
+
+    @Param( "2000" )
+    int docs;
+
+    @Param( "300" )
+    int length;
+
+    @Param( "50000" )
+    int vocabulary;
+
+    @Param( "42" )
+    long seed;
+
+    /** The corpus as files, for the indexer. */
+    private File dir;
+
+    /** The whole corpus as one text. */
+    private String all;
+
+    /** The index searched by the query benchmarks. */
+    private Index index;
+
+    private String[] pairs = new String[QUERIES];
+    private String[] phrases = new String[QUERIES];
+    private String[] triples = new String[QUERIES];
+    private int next = 0;
+
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException {
+	dir = File.createTempFile( "corpus", "" );
+	dir.delete();
+	new ZipfianCorpus( vocabulary, ZipfianCorpus.DEFAULT_EXPONENT, seed ).writeDocuments( dir, docs, length );
+	// The same documents again, from a corpus with the same seed
+	ZipfianCorpus corpus = new ZipfianCorpus( vocabulary, ZipfianCorpus.DEFAULT_EXPONENT, seed );
+	String[] texts = new String[docs];
+	StringBuilder sb = new StringBuilder();
+	for ( int d=0; d<docs; d++ ) {
+	    texts[d] = corpus.document( length );
+	    sb.append( texts[d] ).append( '\n' );
+	}
+	all = sb.toString();
+	index = ir.Benchmark.buildIndex( dir );
+	// The queries of ir.Benchmark
+	corpus = new ZipfianCorpus( vocabulary, ZipfianCorpus.DEFAULT_EXPONENT, seed+1 );
+	Random random = new Random( seed+1 );
+	for ( int q=0; q<QUERIES; q++ ) {
+	    pairs[q] = corpus.nextWord() + " " + corpus.nextWord();
+	    triples[q] = corpus.nextWord() + " " + corpus.nextWord() + " " + corpus.nextWord();
+	    String[] words = texts[random.nextInt( docs )].split( "\\s+" );
+	    int i = random.nextInt( words.length-1 );
+	    phrases[q] = words[i] + " " + words[i+1];
+	}
+    }
+
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+	ir.Benchmark.delete( dir );
+    }
+
+
+    /**  Tokenizes the whole corpus; the time is per corpus */
+    @Benchmark
+    public long tokenizer() throws IOException {
+	SimpleTokenizer tok = new SimpleTokenizer( new StringReader( all ));
+	long chars = 0;
+	while ( tok.advance() ) {
+	    chars += tok.termLength();
+	}
+	return chars;
+    }
+
+
+    /**  Adds a million postings to a list */
+    @Benchmark
+    public PostingsList postingsAdd() {
+	PostingsList list = new PostingsList();
+	for ( int i=0; i<1000000; i++ ) {
+	    list.add( i/8, i );
+	}
+	return list;
+    }
+
+
+    /**  Indexes all files of the corpus into a new index */
+    @Benchmark
+    @Measurement( iterations = 5, time = 5 )
+    public int indexFiles() {
+	return ir.Benchmark.buildIndex( dir ).getLexicon().size();
+    }
+
+
+    @Benchmark
+    public PostingsList searchIntersection() {
+	return search( pairs, Index.INTERSECTION_QUERY );
+    }
+
+
+    @Benchmark
+    public PostingsList searchPhrase() {
+	return search( phrases, Index.PHRASE_QUERY );
+    }
+
+
+    @Benchmark
+    public PostingsList searchRanked() {
+	return search( triples, Index.RANKED_QUERY );
+    }
+
+
+    /**  Runs the next of the queries */
+    private PostingsList search( String[] queries, int queryType ) {
+	String q = queries[next];
+	next = ( next+1 ) % QUERIES;
+	return index.search( new Query( q ), queryType, Index.TF_IDF );
+    }
+}